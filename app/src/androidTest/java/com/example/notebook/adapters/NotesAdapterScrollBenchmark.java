@@ -0,0 +1,109 @@
+package com.example.notebook.adapters;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.util.Log;
+import android.view.View;
+
+import androidx.appcompat.view.ContextThemeWrapper;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.recyclerview.widget.StaggeredGridLayoutManager;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.notebook.R;
+import com.example.notebook.entities.NoteSummary;
+import com.example.notebook.listeners.NoteListener;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scrolls the notes grid through 10k notes and counts how many cells were inflated and how long
+ * binding took. With working view recycling the number of inflated cells stays around what fits
+ * on the screen, no matter how far the grid is scrolled.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotesAdapterScrollBenchmark {
+
+    private static final String TAG = "NotesScrollBenchmark";
+    private static final int NOTE_COUNT = 10000;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int SCROLL_STEP = 400;
+    private static final int MAX_INFLATED_CELLS = 100;
+
+    @Test
+    public void scrollThroughTenThousandNotes() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final Context context = new ContextThemeWrapper(
+                instrumentation.getTargetContext(),
+                R.style.AppTheme
+        );
+        final NotesAdapter[] notesAdapter = new NotesAdapter[1];
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                notesAdapter[0] = new NotesAdapter(new NoteListener() {
+                    @Override
+                    public void onNoteClicked(NoteSummary note, int position) {
+                    }
+
+                    @Override
+                    public void onNoteLongClicked(NoteSummary note, int position) {
+                    }
+                });
+                notesAdapter[0].setNotes(createNotes());
+
+                RecyclerView recyclerView = new RecyclerView(context);
+                recyclerView.setLayoutManager(
+                        new StaggeredGridLayoutManager(2, StaggeredGridLayoutManager.VERTICAL)
+                );
+                recyclerView.setRecycledViewPool(NotesAdapter.createRecycledViewPool());
+                recyclerView.setAdapter(notesAdapter[0]);
+                recyclerView.measure(
+                        View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY)
+                );
+                recyclerView.layout(0, 0, WIDTH, HEIGHT);
+
+                while (recyclerView.canScrollVertically(1)) {
+                    recyclerView.scrollBy(0, SCROLL_STEP);
+                }
+            }
+        });
+
+        NotesAdapter adapter = notesAdapter[0];
+        Log.i(TAG, "inflated cells: " + adapter.createdViewHolderCount
+                + ", binds: " + adapter.boundViewHolderCount
+                + ", average bind: " + (adapter.bindTimeNanos / Math.max(1, adapter.boundViewHolderCount)) + " ns");
+
+        assertTrue(adapter.boundViewHolderCount >= NOTE_COUNT);
+        assertTrue(
+                "Too many inflated cells: " + adapter.createdViewHolderCount,
+                adapter.createdViewHolderCount <= MAX_INFLATED_CELLS
+        );
+    }
+
+    private static List<NoteSummary> createNotes() {
+        List<NoteSummary> notes = new ArrayList<>(NOTE_COUNT);
+        for (int i = NOTE_COUNT; i > 0; i--) {
+            NoteSummary note = new NoteSummary();
+            note.setId(i);
+            note.setTitle("Note " + i);
+            note.setSubTitle(i % 3 == 0 ? "" : "Subtitle of note " + i);
+            note.setDateTime("Monday, 01 January 2024 10:00 AM");
+            note.setColor("#333333");
+            /** Every fourth note has an image, the files don't exist so nothing is decoded */
+            note.setImagePath(i % 4 == 0 ? "/nonexistent/image-" + i + ".jpg" : "");
+            notes.add(note);
+        }
+        return notes;
+    }
+}
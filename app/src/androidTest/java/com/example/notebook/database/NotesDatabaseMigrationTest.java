@@ -0,0 +1,221 @@
+package com.example.notebook.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.migration.Migration;
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Migrates a version 1 database with 100k synthetic notes to the current version, validates the
+ * result against the exported schema and logs how long every migration took.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotesDatabaseMigrationTest {
+
+    private static final String TAG = "NotesDatabaseMigration";
+    private static final String TEST_DATABASE = "notes-migration-test";
+    private static final int NOTE_COUNT = 100000;
+
+    /** Every KEYWORD_EVERY-th note has the keyword in its text, to check the search index */
+    private static final String KEYWORD = "zanzibar";
+    private static final int KEYWORD_EVERY = 100;
+
+    /** The first time of the synthetic notes, one note per minute after that */
+    private static final long FIRST_NOTE_TIME = 1577836800000L;
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(),
+            NotesDatabase.class.getCanonicalName(),
+            new FrameworkSQLiteOpenHelperFactory()
+    );
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void migrateVersion1WithRoom() throws IOException {
+        createVersion1Database();
+
+        long start = SystemClock.elapsedRealtime();
+        SupportSQLiteDatabase database = helper.runMigrationsAndValidate(
+                TEST_DATABASE,
+                NotesDatabase.VERSION,
+                true,
+                NotesDatabase.ALL_MIGRATIONS
+        );
+        Log.i(TAG, "1 -> " + NotesDatabase.VERSION + " with " + NOTE_COUNT + " notes: "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        assertMigratedNotes(database);
+    }
+
+    @Test
+    public void timeEveryMigration() throws IOException {
+        createVersion1Database();
+
+        SupportSQLiteDatabase database = openWithoutRoom();
+        for (Migration migration : NotesDatabase.ALL_MIGRATIONS) {
+            long start = SystemClock.elapsedRealtime();
+            database.beginTransaction();
+            try {
+                migration.migrate(database);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            Log.i(TAG, migration.startVersion + " -> " + migration.endVersion + " with "
+                    + NOTE_COUNT + " notes: " + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+        database.setVersion(NotesDatabase.VERSION);
+        database.close();
+
+        assertMigratedNotes(helper.runMigrationsAndValidate(TEST_DATABASE, NotesDatabase.VERSION, true));
+    }
+
+    private void assertMigratedNotes(SupportSQLiteDatabase database) {
+        assertEquals(NOTE_COUNT, count(database, "SELECT count(*) FROM notes"));
+        assertEquals(0, count(database, "SELECT count(*) FROM notes WHERE note_preview IS NULL"));
+        assertEquals(0, count(database, "SELECT count(*) FROM notes WHERE created_at = 0"));
+        assertEquals(
+                NOTE_COUNT / KEYWORD_EVERY,
+                count(database, "SELECT count(*) FROM notes_fts WHERE notes_fts MATCH '" + KEYWORD + "'")
+        );
+
+        /** The old date_time has no hour, only the day must be right */
+        Cursor cursor = database.query("SELECT created_at FROM notes WHERE id = 1");
+        try {
+            assertTrue(cursor.moveToFirst());
+            SimpleDateFormat dayFormat = new SimpleDateFormat("yyyyMMdd", Locale.ENGLISH);
+            assertEquals(
+                    dayFormat.format(new Date(FIRST_NOTE_TIME)),
+                    dayFormat.format(new Date(cursor.getLong(0)))
+            );
+        } finally {
+            cursor.close();
+        }
+
+        /** Time ranges must be read through the index, not by scanning all notes */
+        cursor = database.query("EXPLAIN QUERY PLAN SELECT id FROM notes "
+                + "WHERE created_at BETWEEN 0 AND 1 ORDER BY created_at DESC");
+        try {
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+            assertTrue(plan.toString(), plan.toString().contains("index_notes_created_at"));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** The schema of version 1, as Room created it, filled with NOTE_COUNT notes */
+    private void createVersion1Database() {
+        SQLiteDatabase database = context.openOrCreateDatabase(TEST_DATABASE, Context.MODE_PRIVATE, null);
+        try {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `notes` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`title` TEXT, `date_time` TEXT, `sub_title` TEXT, `note_text` TEXT, "
+                    + "`image_path` TEXT, `color` TEXT, `web_link` TEXT)");
+
+            /** date_time was written in the default locale, English is read by every locale */
+            SimpleDateFormat dateTimeFormat = new SimpleDateFormat("EEEE, dd MMMM yyyy MM:mm a", Locale.ENGLISH);
+            SQLiteStatement insert = database.compileStatement("INSERT INTO notes "
+                    + "(title, date_time, sub_title, note_text, image_path, color, web_link) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?)");
+            database.beginTransaction();
+            try {
+                for (int i = 0; i < NOTE_COUNT; i++) {
+                    insert.clearBindings();
+                    insert.bindString(1, "Note " + i);
+                    insert.bindString(2, dateTimeFormat.format(new Date(FIRST_NOTE_TIME + i * 60000L)));
+                    insert.bindString(3, "Subtitle of note " + i);
+                    insert.bindString(4, noteText(i));
+                    insert.bindString(5, "");
+                    insert.bindString(6, "#333333");
+                    if(i % 10 == 0) {
+                        insert.bindString(7, "https://example.com/" + i);
+                    }
+                    insert.executeInsert();
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            database.setVersion(1);
+        } finally {
+            database.close();
+        }
+    }
+
+    private static String noteText(int i) {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < 8; line++) {
+            text.append("Line ").append(line).append(" of the text of note ").append(i).append(".\n");
+        }
+        if(i % KEYWORD_EVERY == 0) {
+            text.append("Trip to ").append(KEYWORD).append('\n');
+        }
+        return text.toString();
+    }
+
+    /** Opens the test database at the version it has, without Room and without any migration */
+    private SupportSQLiteDatabase openWithoutRoom() {
+        SupportSQLiteOpenHelper.Configuration configuration = SupportSQLiteOpenHelper.Configuration
+                .builder(context)
+                .name(TEST_DATABASE)
+                .callback(new SupportSQLiteOpenHelper.Callback(1) {
+                    @Override
+                    public void onCreate(SupportSQLiteDatabase db) {
+                    }
+
+                    @Override
+                    public void onUpgrade(SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+                    }
+                })
+                .build();
+        return new FrameworkSQLiteOpenHelperFactory().create(configuration).getWritableDatabase();
+    }
+
+    private static long count(SupportSQLiteDatabase database, String query) {
+        Cursor cursor = database.query(query);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.notebook;
+
+import android.app.Application;
+
+import com.example.notebook.database.NotesDatabase;
+import com.example.notebook.repository.NoteRepository;
+
+/**
+ * Starts the work the first screen is going to wait for, as early as possible. The database is
+ * opened in background while the first activity is still being created. Images which no note
+ * uses anymore are deleted in background after that.
+ * */
+public class NotebookApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        NotesDatabase.prewarm(this);
+        NoteRepository.getInstance(this).deleteUnusedImages(this);
+    }
+}
@@ -2,33 +2,31 @@ package com.example.notebook.activities;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.ViewModelProvider;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.GradientDrawable;
 import android.net.Uri;
-import android.os.AsyncTask;
-import android.os.Build;
 import android.os.Bundle;
 import android.provider.MediaStore;
+import android.text.Editable;
 import android.text.PrecomputedText;
-import android.util.Log;
+import android.text.TextWatcher;
 import android.util.Patterns;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
@@ -36,13 +34,15 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.notebook.R;
-import com.example.notebook.database.NotesDatabase;
 import com.example.notebook.entities.Note;
+import com.example.notebook.images.ImageImporter;
+import com.example.notebook.images.ImageLoader;
+import com.example.notebook.repository.NoteAutosaver;
+import com.example.notebook.repository.NoteRepository;
+import com.example.notebook.utilities.NoteDates;
+import com.example.notebook.viewmodels.NoteEditorViewModel;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 
-import java.io.InputStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Locale;
 
 import javax.xml.transform.Result;
@@ -64,11 +64,16 @@ public class CreateNoteActivity extends AppCompatActivity {
     private static final int REQUEST_CODE_STORAGE_PERMISSION = 1;
     private static final int REQUEST_CODE_SELECT_IMAGE = 2;
 
+    /** Id of the written note, kept in case the process is killed in background */
+    private static final String STATE_SAVED_NOTE_ID = "savedNoteId";
+
     /** This alert dialog is used to get url from users and for delete note*/
     private AlertDialog dialogAddUrl;
     private AlertDialog dialogDeleteNote;
 
     private Note alreadyAvailableNote;
+    private boolean isNoteLoading = false;
+    private NoteAutosaver noteAutosaver;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -93,10 +98,51 @@ public class CreateNoteActivity extends AppCompatActivity {
         textWebURL = findViewById(R.id.textWebURL);
         layoutWebURL = findViewById(R.id.layoutWebURL);
 
-        textDateView.setText(
-                new SimpleDateFormat("EEEE, dd MMMM yyyy MM:mm a", Locale.getDefault())
-                .format(new Date())
-        );
+        textDateView.setText(NoteDates.format(System.currentTimeMillis()));
+
+        /**
+         * Draft autosave, edits of title, subtitle and note text are written in background
+         * at most once per interval and only when the note has changed. The autosaver outlives
+         * a recreated activity.
+         * */
+        noteAutosaver = new ViewModelProvider(
+                this,
+                ViewModelProvider.AndroidViewModelFactory.getInstance(getApplication())
+        ).get(NoteEditorViewModel.class).getNoteAutosaver();
+        noteAutosaver.setEditor(new NoteAutosaver.Editor() {
+                    @Override
+                    public Note getDraft() {
+                        return isNoteLoading || !canBeSaved() ? null : buildNote();
+                    }
+
+                    @Override
+                    public void onSaveConflict() {
+                        Toast.makeText(
+                                CreateNoteActivity.this,
+                                "This note was changed somewhere else. Save to keep your version.",
+                                Toast.LENGTH_LONG
+                        ).show();
+                    }
+                });
+        TextWatcher autosaveWatcher = new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                noteAutosaver.onEdited();
+            }
+        };
+        inputNoteTitle.addTextChangedListener(autosaveWatcher);
+        inputNoteSubTitle.addTextChangedListener(autosaveWatcher);
+        inputNoteText.addTextChangedListener(autosaveWatcher);
 
         ImageView imageSave = findViewById(R.id.imageSave);
         imageSave.setOnClickListener(new View.OnClickListener() {
@@ -109,13 +155,6 @@ public class CreateNoteActivity extends AppCompatActivity {
         selectedNoteColor = "#333333";
         selectedImagePath = "";
 
-        /**
-         * In case of View or Edit note*/
-        if(getIntent().getBooleanExtra("isViewOrUpdate", false)) {
-            alreadyAvailableNote = (Note) getIntent().getSerializableExtra("note");
-            setViewOrUpdateNote();
-        }
-
         //For deleting web Url
         findViewById(R.id.imageRemoveWebURL).setOnClickListener(new View.OnClickListener() {
             @Override
@@ -129,6 +168,7 @@ public class CreateNoteActivity extends AppCompatActivity {
         findViewById(R.id.imageRemoveImage).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                ImageLoader.getInstance(CreateNoteActivity.this).cancel(imageNote);
                 imageNote.setImageBitmap(null);
                 imageNote.setVisibility(View.GONE);
                 findViewById(R.id.imageRemoveImage).setVisibility(View.GONE);
@@ -141,7 +181,7 @@ public class CreateNoteActivity extends AppCompatActivity {
             if(type != null) {
                 if(type.equals("image")) {
                     selectedImagePath = getIntent().getStringExtra("imagePath");
-                    imageNote.setImageBitmap(BitmapFactory.decodeFile(selectedImagePath));
+                    loadNoteImage(selectedImagePath);
                     imageNote.setVisibility(View.VISIBLE);
                     findViewById(R.id.imageRemoveImage).setVisibility(View.VISIBLE);
                 } else if (type.equals("URL")) {
@@ -153,18 +193,87 @@ public class CreateNoteActivity extends AppCompatActivity {
 
         initMiscellaneous();
         setSubtitleIndicatorColor();
+
+        /**
+         * In case of View or Edit note. Only the id of the note is passed, a recently opened
+         * note is shown at once, any other is loaded in background. A recreated activity goes
+         * on with the note as the autosaver has written it, nothing can be written before.
+         * */
+        if(noteAutosaver.hasNote()) {
+            restoreSavedNote();
+        } else if(savedInstanceState != null && savedInstanceState.containsKey(STATE_SAVED_NOTE_ID)) {
+            loadNote(savedInstanceState.getInt(STATE_SAVED_NOTE_ID));
+        } else if(getIntent().getBooleanExtra("isViewOrUpdate", false)) {
+            loadNote(getIntent().getIntExtra("noteId", -1));
+        }
+    }
+
+    /** Shows the note the autosaver has written, once a write of the old activity is done */
+    private void restoreSavedNote() {
+        isNoteLoading = true;
+        noteAutosaver.runAfterWrite(new Runnable() {
+            @Override
+            public void run() {
+                isNoteLoading = false;
+                if(noteAutosaver.getSavedNote() != null) {
+                    alreadyAvailableNote = noteAutosaver.getSavedNote();
+                    setViewOrUpdateNote();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if(noteAutosaver.getSavedNote() != null) {
+            outState.putInt(STATE_SAVED_NOTE_ID, noteAutosaver.getSavedNote().getId());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        noteAutosaver.setEditor(null);
+    }
+
+    private void loadNote(int noteId) {
+        NoteRepository noteRepository = NoteRepository.getInstance(getApplicationContext());
+        Note note = noteRepository.getCachedNote(noteId);
+        if(note != null) {
+            alreadyAvailableNote = note;
+            setViewOrUpdateNote();
+            return;
+        }
+        isNoteLoading = true;
+        noteRepository.getNoteById(noteId, this, new NoteRepository.Callback<Note>() {
+            @Override
+            public void onResult(Note note) {
+                isNoteLoading = false;
+                if(note == null) {
+                    Toast.makeText(CreateNoteActivity.this, "Note not found", Toast.LENGTH_SHORT).show();
+                    finish();
+                    return;
+                }
+                alreadyAvailableNote = note;
+                setViewOrUpdateNote();
+            }
+        });
     }
 
     private void setViewOrUpdateNote() {
+        noteAutosaver.setSavedNote(alreadyAvailableNote);
         inputNoteTitle.setText(alreadyAvailableNote.getTitle());
         inputNoteSubTitle.setText(alreadyAvailableNote.getSubTitle());
         inputNoteText.setText(alreadyAvailableNote.getNoteText());
-        textDateView.setText(alreadyAvailableNote.getDateTime());
+        textDateView.setText(alreadyAvailableNote.getCreatedAt() > 0
+                ? NoteDates.format(alreadyAvailableNote.getCreatedAt())
+                : alreadyAvailableNote.getDateTime());
 
         if(alreadyAvailableNote.getImagePath() != null &&
             !alreadyAvailableNote.getImagePath().trim().isEmpty()) {
 
-            imageNote.setImageBitmap(BitmapFactory.decodeFile(alreadyAvailableNote.getImagePath()));
+            loadNoteImage(alreadyAvailableNote.getImagePath());
             imageNote.setVisibility(View.VISIBLE);
             findViewById(R.id.imageRemoveImage).setVisibility(View.VISIBLE);
             selectedImagePath = alreadyAvailableNote.getImagePath();
@@ -175,71 +284,82 @@ public class CreateNoteActivity extends AppCompatActivity {
             textWebURL.setText(alreadyAvailableNote.getWebLink());
             layoutWebURL.setVisibility(View.VISIBLE);
         }
+
+        setMiscellaneousOfNote();
+    }
+
+    /** The image is shown as wide as the screen, it comes from the thumbnail cache when possible */
+    private void loadNoteImage(String imagePath) {
+        ImageLoader.getInstance(this).load(
+                imagePath,
+                imageNote,
+                getResources().getDisplayMetrics().widthPixels
+        );
     }
 
     /** This function is used to save data in database */
     private void saveNote() {
+        if(isNoteLoading) {
+            /** Saving now would add a new note instead of updating the one being loaded */
+            return;
+        }
         if(inputNoteTitle.getText().toString().trim().isEmpty()) {
             Toast.makeText(this, "Note title can't be empty", Toast.LENGTH_SHORT).show();
             return;
         }
-        else if(inputNoteSubTitle.getText().toString().trim().isEmpty()
-            && inputNoteText.getText().toString().trim().isEmpty()) {
+        else if(!canBeSaved()) {
             Toast.makeText(this, "Note can't be empty", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        final Note note = new Note();
+        /** NoteAutosaver saves the note on a background thread, after a draft write which may be
+         *  on its way, and gives back the id of the saved note on the main thread.
+         */
+        noteAutosaver.save(new NoteRepository.Callback<Long>() {
+            @Override
+            public void onResult(Long noteId) {
+                Intent intent = new Intent();
+                intent.putExtra("noteId", noteId.intValue());
+                setResult(RESULT_OK, intent);
+                finish();
+            }
+        });
+    }
+
+    /** A note needs a title and either a subtitle or some text */
+    private boolean canBeSaved() {
+        return !inputNoteTitle.getText().toString().trim().isEmpty()
+                && !(inputNoteSubTitle.getText().toString().trim().isEmpty()
+                && inputNoteText.getText().toString().trim().isEmpty());
+    }
+
+    /**
+     * The note as it is in the editor. It has no id, NoteRepository updates the already
+     * available or already autosaved note and inserts a new note otherwise.
+     * */
+    private Note buildNote() {
+        Note note = new Note();
         note.setTitle(inputNoteTitle.getText().toString());
         note.setSubTitle(inputNoteSubTitle.getText().toString());
         note.setNoteText(inputNoteText.getText().toString());
-        note.setDateTime(textDateView.getText().toString());
+        /** date_time is only kept for older versions, a saved note keeps the one it has */
+        note.setDateTime(alreadyAvailableNote != null
+                ? alreadyAvailableNote.getDateTime()
+                : textDateView.getText().toString());
         note.setColor(selectedNoteColor);
         note.setImagePath(selectedImagePath);
 
         if(layoutWebURL.getVisibility() == View.VISIBLE) {
             note.setWebLink(textWebURL.getText().toString());
         }
+        return note;
+    }
 
-        if(alreadyAvailableNote != null) {
-            /**
-             * Here, we are setting id of new note from an already available note.
-             * Since we have set onConflictStrategy to "REPLACE" in NoteDao.
-             * This means if id of new note is already available in the database
-             * then it will be replaced with new note and our note get updated.
-             * */
-            note.setId(alreadyAvailableNote.getId());
-        }
-
-        /** Android AyncTask going to do background operation on background thread
-        *   and update on main thread. In android we cant directly touch background
-        *   thread to main thread in android development. Asynctask help us to make
-        *   communication between background thread to main thread.
-         */
-        @SuppressLint("StaticFieldLeak")
-        class SaveNoteTask extends AsyncTask<Void, Void, Void> {
-
-            /** In this method we have to do background operation on background
-            *   thread. Operations in this method should not touch on any mainthread
-            *   activities or fragments.
-             */
-            @Override
-            protected Void doInBackground(Void... voids) {
-                NotesDatabase.getDatabase(getApplicationContext()).noteDao().insertNote(note);
-                return null;
-            }
-
-            /** In this method we can update ui of background operation result. */
-            @Override
-            protected void onPostExecute(Void aVoid) {
-                super.onPostExecute(aVoid);
-                Intent intent = new Intent();
-                setResult(RESULT_OK, intent);
-                finish();
-            }
-        }
-
-        new SaveNoteTask().execute();
+    /** The draft is written when the editor goes to background, so nothing is lost */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        noteAutosaver.flush();
     }
 
     /** For note color change.... And this function makes ui more useful.. By clicking miscellaneous
@@ -332,29 +452,6 @@ public class CreateNoteActivity extends AppCompatActivity {
             }
         });
 
-        /**
-         * Here it's used to edit existing note for changing color of note*/
-        if (alreadyAvailableNote != null && alreadyAvailableNote.getColor() != null
-            && !alreadyAvailableNote.getColor().trim().isEmpty()) {
-            switch (alreadyAvailableNote.getColor()) {
-                case "333333":
-                    layoutMiscellaneous.findViewById(R.id.viewColor1).performClick();
-                    break;
-                case "FDBE3B":
-                    layoutMiscellaneous.findViewById(R.id.viewColor2).performClick();
-                    break;
-                case "ff4842":
-                    layoutMiscellaneous.findViewById(R.id.viewColor3).performClick();
-                    break;
-                case "3a52fc":
-                    layoutMiscellaneous.findViewById(R.id.viewColor4).performClick();
-                    break;
-                case "000000":
-                    layoutMiscellaneous.findViewById(R.id.viewColor5).performClick();
-                    break;
-            }
-        }
-
         /**
          * This code is for selecting image from external storage of phone
          * */
@@ -378,6 +475,18 @@ public class CreateNoteActivity extends AppCompatActivity {
             }
         });
 
+        /**
+         * Attached images are scaled down, the original is kept only if the user wants to
+         * */
+        CheckBox checkKeepOriginalImage = layoutMiscellaneous.findViewById(R.id.checkKeepOriginalImage);
+        checkKeepOriginalImage.setChecked(ImageImporter.isKeepingOriginals(this));
+        checkKeepOriginalImage.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                ImageImporter.setKeepingOriginals(getApplicationContext(), isChecked);
+            }
+        });
+
         /**
          * This alert dialog is used for getting URL from users
          * */
@@ -388,6 +497,39 @@ public class CreateNoteActivity extends AppCompatActivity {
                 showAddURLDialog();
             }
         });
+    }
+
+    /** Selects the color of the opened note and allows deleting it, once the note is there */
+    private void setMiscellaneousOfNote() {
+        final LinearLayout layoutMiscellaneous = findViewById(R.id.layoutMiscellaneous);
+        final BottomSheetBehavior<LinearLayout> bottomSheetBehavior = BottomSheetBehavior.from(layoutMiscellaneous);
+
+        /**
+         * Here it's used to edit existing note for changing color of note. Colors are stored
+         * with their #, the selected color is then set to the stored value itself, so an
+         * untouched note has the same color in its draft and is not written again.*/
+        if (alreadyAvailableNote != null && alreadyAvailableNote.getColor() != null
+            && !alreadyAvailableNote.getColor().trim().isEmpty()) {
+            switch (alreadyAvailableNote.getColor().toUpperCase(Locale.US)) {
+                case "#333333":
+                    layoutMiscellaneous.findViewById(R.id.viewColor1).performClick();
+                    break;
+                case "#FDBE3B":
+                    layoutMiscellaneous.findViewById(R.id.viewColor2).performClick();
+                    break;
+                case "#FF4842":
+                    layoutMiscellaneous.findViewById(R.id.viewColor3).performClick();
+                    break;
+                case "#3A52FC":
+                    layoutMiscellaneous.findViewById(R.id.viewColor4).performClick();
+                    break;
+                case "#000000":
+                    layoutMiscellaneous.findViewById(R.id.viewColor5).performClick();
+                    break;
+            }
+            selectedNoteColor = alreadyAvailableNote.getColor();
+            setSubtitleIndicatorColor();
+        }
 
         /**
          * This is an alert dialog for deleting note*/
@@ -419,28 +561,21 @@ public class CreateNoteActivity extends AppCompatActivity {
             view.findViewById(R.id.textDeleteNote).setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-
-                    @SuppressLint("StaticFieldLeak")
-                    class DeleteNoteTask extends AsyncTask<Void, Void, Void> {
-
-                        @Override
-                        protected Void doInBackground(Void... voids) {
-                            NotesDatabase.getDatabase(getApplicationContext()).noteDao()
-                                    .deleteNote(alreadyAvailableNote);
-                            return null;
-                        }
-
-                        @Override
-                        protected void onPostExecute(Void unused) {
-                            super.onPostExecute(unused);
-                            Intent intent = new Intent();
-                            intent.putExtra("isNoteDeleted", true);
-                            setResult(RESULT_OK, intent);
-                            finish();
-                        }
-                    }
-
-                    new DeleteNoteTask().execute();
+                    noteAutosaver.stop();
+                    NoteRepository.getInstance(getApplicationContext()).deleteNote(
+                            alreadyAvailableNote,
+                            CreateNoteActivity.this,
+                            new NoteRepository.Callback<Void>() {
+                                @Override
+                                public void onResult(Void unused) {
+                                    Intent intent = new Intent();
+                                    intent.putExtra("isNoteDeleted", true);
+                                    intent.putExtra("noteId", alreadyAvailableNote.getId());
+                                    setResult(RESULT_OK, intent);
+                                    finish();
+                                }
+                            }
+                    );
                 }
             });
 
@@ -483,7 +618,6 @@ public class CreateNoteActivity extends AppCompatActivity {
     }
 
     /** This override function will work after selecting an image */
-    @RequiresApi(api = Build.VERSION_CODES.O)
     @Override
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
@@ -493,51 +627,28 @@ public class CreateNoteActivity extends AppCompatActivity {
                 /** Basically uri defines the file path of image. */
                 Uri selectImageUri = data.getData();
                 if(selectImageUri != null) {
-                    try {
-                        /**
-                         *  By this code programme will get image resource and set it to the imageView
-                         *  but it'll not be saved in database. For saving it to database the image
-                         *  file must be converted in string file....
-                         * */
-                        InputStream inputStream = getContentResolver().openInputStream(selectImageUri);
-                        Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                        imageNote.setVisibility(View.VISIBLE);
-                        imageNote.setImageBitmap(bitmap);
-                        findViewById(R.id.imageRemoveImage).setVisibility(View.VISIBLE);
-
-                        /** From this we'll get a string from image */
-                        selectedImagePath = getPathFromUri(selectImageUri);
-                        Log.d("Button", selectedImagePath);
-
-                    } catch (Exception exception) {
-                        Toast.makeText(this, exception.getMessage(), Toast.LENGTH_SHORT).show();
-                    }
+                    /**
+                     *  The image is copied into private storage of the app in background. The
+                     *  path of that copy is saved in database and the image is shown from it.
+                     * */
+                    ImageImporter.importImage(this, selectImageUri, new ImageImporter.Callback() {
+                        @Override
+                        public void onImageImported(String path) {
+                            if(path == null) {
+                                Toast.makeText(CreateNoteActivity.this, "Can't attach image", Toast.LENGTH_SHORT).show();
+                                return;
+                            }
+                            selectedImagePath = path;
+                            imageNote.setVisibility(View.VISIBLE);
+                            loadNoteImage(selectedImagePath);
+                            findViewById(R.id.imageRemoveImage).setVisibility(View.VISIBLE);
+                        }
+                    });
                 }
             }
         }
     }
 
-    /** This function convert an image uri to string. And after getting a string we can save it to
-     * database for using it */
-    @RequiresApi(api = Build.VERSION_CODES.O)
-    private String getPathFromUri(Uri contentUri) {
-
-        String filePath;
-        Cursor cursor = getContentResolver()
-                .query(contentUri,null, null, null, null);
-
-        if(cursor == null) {
-            filePath = contentUri.getPath();
-        } else {
-            cursor.moveToFirst();
-            int index = cursor.getColumnIndex("_data");
-            filePath = cursor.getString(index);
-            cursor.close();
-        }
-
-        return filePath;
-    }
-
     /** This function is used to make a custom alert dialog */
     private void showAddURLDialog() {
         if(dialogAddUrl == null) {
@@ -2,11 +2,12 @@ package com.example.notebook.activities;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.StaggeredGridLayoutManager;
 
@@ -14,11 +15,8 @@ import android.Manifest;
 import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.graphics.drawable.ColorDrawable;
 import android.net.Uri;
-import android.os.AsyncTask;
-import android.os.Build;
 import android.os.Bundle;
 import android.provider.MediaStore;
 import android.text.Editable;
@@ -30,16 +28,27 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.EditText;
 import android.widget.ImageView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.notebook.R;
 import com.example.notebook.adapters.NotesAdapter;
-import com.example.notebook.database.NotesDatabase;
-import com.example.notebook.entities.Note;
+import com.example.notebook.entities.NoteSummary;
+import com.example.notebook.images.ImageImporter;
 import com.example.notebook.listeners.NoteListener;
-
+import com.example.notebook.metrics.JankMonitor;
+import com.example.notebook.metrics.Metrics;
+import com.example.notebook.metrics.TimedStaggeredGridLayoutManager;
+import com.example.notebook.repository.NoteListSnapshot;
+import com.example.notebook.viewmodels.NotesViewModel;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 public class MainActivity extends AppCompatActivity implements NoteListener {
 
@@ -49,13 +58,28 @@ public class MainActivity extends AppCompatActivity implements NoteListener {
     public static final int REQUEST_CODE_SELECT_IMAGE  = 4;
     public static final int REQUEST_CODE_STORAGE_PERMISSION  = 5;
 
+    /** Notes are loaded page by page, next page is requested when the user is PREFETCH_DISTANCE
+     * notes away from the end of the grid. */
+    private static final int PREFETCH_DISTANCE = 10;
+
+    /** From creating the activity until the first notes from the database are there */
+    private static final String METRIC_FIRST_NOTES = "MainActivity.firstNotes";
+
     private RecyclerView notesRecyclerView;
-    private List<Note> noteList;
+    private StaggeredGridLayoutManager notesLayoutManager;
+    private List<NoteSummary> noteList;
     private NotesAdapter notesAdapter;
+    private NotesViewModel notesViewModel;
+    private JankMonitor jankMonitor;
 
-    private int noteClickedPosition = -1;
+    private boolean isScrollingToNewNote = false;
+
+    /** Until the first notes from the database are shown, 0 after that */
+    private long createdAtNanos = System.nanoTime();
 
     private AlertDialog dialogAddUrl;
+    private AlertDialog dialogDeleteNotes;
+    private TextView textDeleteNotesMessage;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -74,20 +98,51 @@ public class MainActivity extends AppCompatActivity implements NoteListener {
         });
 
         notesRecyclerView = findViewById(R.id.notesRecyclerView);
-        notesRecyclerView.setLayoutManager(
-                new StaggeredGridLayoutManager(2, StaggeredGridLayoutManager.VERTICAL)
-        );
+        notesLayoutManager = new TimedStaggeredGridLayoutManager(2, StaggeredGridLayoutManager.VERTICAL);
+        notesRecyclerView.setLayoutManager(notesLayoutManager);
+        jankMonitor = new JankMonitor(this, "notes");
+        jankMonitor.watch(notesRecyclerView);
 
         noteList = new ArrayList<>();
-        notesAdapter = new NotesAdapter(noteList, this);
+        notesViewModel = new ViewModelProvider(
+                this,
+                ViewModelProvider.AndroidViewModelFactory.getInstance(getApplication())
+        ).get(NotesViewModel.class);
+        notesAdapter = new NotesAdapter(this);
+        notesRecyclerView.setRecycledViewPool(NotesAdapter.createRecycledViewPool());
         notesRecyclerView.setAdapter(notesAdapter);
 
         /**
-         * This getNotes() method is called from onCreate() method of an activity. It means
-         * the application is just started and we need to display all notes from database
-         * and that's why we are passing REQUEST_CODE_SHOW_NOTES to that method..
+         * Load the next page of notes when the user is scrolling down and getting close to the
+         * last loaded note.
          * */
-        getNotes(REQUEST_CODE_SHOW_NOTES, false);
+        notesRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                super.onScrolled(recyclerView, dx, dy);
+                if(dy <= 0 || noteList.isEmpty() || notesAdapter.isShowingSearchResult()) {
+                    return;
+                }
+                int lastVisiblePosition = RecyclerView.NO_POSITION;
+                for (int position : notesLayoutManager.findLastVisibleItemPositions(null)) {
+                    lastVisiblePosition = Math.max(lastVisiblePosition, position);
+                }
+                if(lastVisiblePosition >= noteList.size() - PREFETCH_DISTANCE) {
+                    notesViewModel.loadNextPage();
+                }
+            }
+        });
+
+        /**
+         * On a cold start the notes of the last run are shown from the snapshot right away, the
+         * observed notes replace them when the database has answered. A recreated activity has
+         * the notes in the view model already.
+         * */
+        if(notesViewModel.getNotes().getValue() == null) {
+            notesAdapter.setNotes(NoteListSnapshot.read(this));
+        }
+        observeNotes();
+        initSelection();
 
         /**
          * For searching Note*/
@@ -100,13 +155,14 @@ public class MainActivity extends AppCompatActivity implements NoteListener {
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                notesAdapter.cancelTimer();
+
             }
 
             @Override
             public void afterTextChanged(Editable s) {
                 if (noteList.size() != 0) {
-                    notesAdapter.searchNotes(s.toString());
+                    jankMonitor.onUpdate();
+                    notesViewModel.search(s.toString());
                 }
             }
         });
@@ -148,6 +204,19 @@ public class MainActivity extends AppCompatActivity implements NoteListener {
         });
     }
 
+    /** A session of the jank monitor lasts while the grid is in foreground, it's exported when it ends */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        jankMonitor.start();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        jankMonitor.stop();
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
@@ -160,25 +229,6 @@ public class MainActivity extends AppCompatActivity implements NoteListener {
         }
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.O)
-    private String getPathFromUri(Uri contentUri) {
-
-        String filePath;
-        Cursor cursor = getContentResolver()
-                .query(contentUri,null, null, null, null);
-
-        if(cursor == null) {
-            filePath = contentUri.getPath();
-        } else {
-            cursor.moveToFirst();
-            int index = cursor.getColumnIndex("_data");
-            filePath = cursor.getString(index);
-            cursor.close();
-        }
-
-        return filePath;
-    }
-
     @SuppressLint("QueryPermissionsNeeded")
     private void selectImage() {
         Intent intent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
@@ -186,120 +236,201 @@ public class MainActivity extends AppCompatActivity implements NoteListener {
     }
 
     /**
-     * This code is used to view or update the note.
+     * This code is used to view or update the note. Only the id of the note is passed to the
+     * editor, which loads the whole note itself, so a large note is never copied through the
+     * Intent.
      * */
     @Override
-    public void onNoteClicked(Note note, int position) {
-        noteClickedPosition = position;
+    public void onNoteClicked(NoteSummary noteSummary, int position) {
+        if(notesViewModel.isSelecting()) {
+            notesViewModel.toggleSelection(noteSummary.getId());
+            return;
+        }
         Intent intent = new Intent(getApplicationContext(), CreateNoteActivity.class);
         intent.putExtra("isViewOrUpdate", true);
-        intent.putExtra("note", note);
+        intent.putExtra("noteId", noteSummary.getId());
         startActivityForResult(intent, REQUEST_CODE_UPDATE_NOTE);
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.O)
+    /** A long click starts selecting notes, which can be deleted or recolored all at once */
+    @Override
+    public void onNoteLongClicked(NoteSummary noteSummary, int position) {
+        notesViewModel.toggleSelection(noteSummary.getId());
+    }
+
+    @Override
+    public void onBackPressed() {
+        if(notesViewModel.isSelecting()) {
+            notesViewModel.clearSelection();
+            return;
+        }
+        super.onBackPressed();
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         if(requestCode == REQUEST_CODE_ADD_NOTE && resultCode == RESULT_OK) {
             /**
-             * This getNotes() method is called from the onActivityResult() method of activity and
-             * we checked the current request code is for add note and the result is RESULT_OK. It
-             * means a new note is added from CreateNote activity and its result is sent back to this
-             * activity that's why we are passing REQUEST_CODE_ADD_NOTE to that method.
+             * The grid gets the new note by itself, from the observed notes. We only scroll to
+             * the top when it's there, because new notes are added at the top.
              * */
-            getNotes(REQUEST_CODE_ADD_NOTE, false);
+            isScrollingToNewNote = true;
 
-        } else if (requestCode == REQUEST_CODE_UPDATE_NOTE && resultCode == RESULT_OK) {
-            if(data != null) {
-                /**
-                 * This getNotes() method is called from the onActivityResult() method of activity
-                 * and we checked the current request code is for update note and the result is
-                 * RESULT_OK. It means already available note is updated from CreateNote activity
-                 * and its result is sent back to this activity that's why we are passing
-                 * REQUEST_CODE_UPDATE_NOTE to that method.
-                 * */
-                getNotes(REQUEST_CODE_UPDATE_NOTE, data.getBooleanExtra("isNoteDeleted", false));
-            }
         } else if (requestCode == REQUEST_CODE_SELECT_IMAGE && resultCode == RESULT_OK) {
             if(data != null) {
                 Uri selectedImageUri = data.getData();
                 if(selectedImageUri != null) {
-                    try {
-                        String selectedImagePath = getPathFromUri(selectedImageUri);
-                        Intent intent = new Intent(getApplicationContext(), CreateNoteActivity.class);
-                        intent.putExtra("isFromQuickActions", true);
-                        intent.putExtra("quickActionType", "image");
-                        intent.putExtra("imagePath", selectedImagePath);
-                        startActivityForResult(intent, REQUEST_CODE_ADD_NOTE);
-                    } catch (Exception exception) {
-                        Toast.makeText(this, exception.getMessage(), Toast.LENGTH_LONG).show();
-                    }
+                    /** The picked image is copied into private storage first, the note keeps the
+                     * path of that copy */
+                    ImageImporter.importImage(this, selectedImageUri, new ImageImporter.Callback() {
+                        @Override
+                        public void onImageImported(String selectedImagePath) {
+                            if(selectedImagePath == null) {
+                                Toast.makeText(MainActivity.this, "Can't attach image", Toast.LENGTH_LONG).show();
+                                return;
+                            }
+                            Intent intent = new Intent(getApplicationContext(), CreateNoteActivity.class);
+                            intent.putExtra("isFromQuickActions", true);
+                            intent.putExtra("quickActionType", "image");
+                            intent.putExtra("imagePath", selectedImagePath);
+                            startActivityForResult(intent, REQUEST_CODE_ADD_NOTE);
+                        }
+                    });
                 }
             }
         }
     }
 
-    private void getNotes(final int requestCode, final boolean isNoteDeleted) {
+    /**
+     * The notes and the search result are observed from NotesViewModel. Room queries the notes
+     * again on a background thread after every change of the notes table, so an added, updated
+     * or deleted note shows up without asking for it. The adapter diffs the new list against the
+     * shown one and only the changed notes are bound. When the activity is recreated the view
+     * model gives back what it already has, nothing is read or searched again.
+     * */
+    private void observeNotes() {
+        notesViewModel.getNotes().observe(this, new Observer<List<NoteSummary>>() {
+            @Override
+            public void onChanged(List<NoteSummary> notes) {
+                jankMonitor.onUpdate();
+                noteList = notes;
+                if(createdAtNanos != 0) {
+                    Metrics.record(METRIC_FIRST_NOTES, System.nanoTime() - createdAtNanos);
+                    createdAtNanos = 0;
+                }
+                if(isScrollingToNewNote) {
+                    isScrollingToNewNote = false;
+                    notesAdapter.setNotes(noteList, new Runnable() {
+                        @Override
+                        public void run() {
+                            notesRecyclerView.smoothScrollToPosition(0);
+                        }
+                    });
+                } else {
+                    notesAdapter.setNotes(noteList);
+                }
+            }
+        });
+        notesViewModel.getSearchResult().observe(this, new Observer<NotesViewModel.SearchResult>() {
+            @Override
+            public void onChanged(NotesViewModel.SearchResult searchResult) {
+                jankMonitor.onUpdate();
+                notesAdapter.setSearchResult(searchResult.getNotes(), searchResult.getMatches());
+            }
+        });
+    }
 
-        /** Android AyncTask going to do background operation on background thread
-         *   and update on main thread. In android we cant directly touch background
-         *   thread to main thread in android development. Asynctask help us to make
-         *   communication between background thread to main thread.
-         */
-        @SuppressLint("StaticFieldLeak")
-        class GetNodesTask extends AsyncTask <Void, Void, List<Note>> {
+    /**
+     * While notes are selected, the quick actions are replaced by the selection bar. Its actions
+     * change all selected notes in one transaction.
+     * */
+    private void initSelection() {
+        final View layoutSelection = findViewById(R.id.layoutSelection);
+        final View layoutQuickActions = findViewById(R.id.layoutQuickActions);
+        final View imageAddNoteMain = findViewById(R.id.imageAddNoteMain);
+        final TextView textSelectedNotes = findViewById(R.id.textSelectedNotes);
 
+        notesViewModel.getSelectedNoteIds().observe(this, new Observer<Set<Integer>>() {
             @Override
-            protected List<Note> doInBackground(Void... voids) {
-                return NotesDatabase
-                        .getDatabase(getApplicationContext())
-                        .noteDao().getAllNotes();
+            public void onChanged(Set<Integer> noteIds) {
+                notesAdapter.setSelectedNoteIds(noteIds);
+                boolean isSelecting = !noteIds.isEmpty();
+                layoutSelection.setVisibility(isSelecting ? View.VISIBLE : View.GONE);
+                layoutQuickActions.setVisibility(isSelecting ? View.INVISIBLE : View.VISIBLE);
+                imageAddNoteMain.setVisibility(isSelecting ? View.GONE : View.VISIBLE);
+                textSelectedNotes.setText(noteIds.size() + " selected");
             }
+        });
 
+        findViewById(R.id.imageCancelSelection).setOnClickListener(new View.OnClickListener() {
             @Override
-            protected void onPostExecute(List<Note> notes) {
-                super.onPostExecute(notes);
-
-                if(requestCode == REQUEST_CODE_SHOW_NOTES) {
-                    /**
-                     * Here, request code is REQUEST_CODE_SHOW_NOTES, so we are adding all notes
-                     * from database to noteList and notify adapter about the new data set.
-                     * */
-                    noteList.addAll(notes);
-                    notesAdapter.notifyDataSetChanged();
+            public void onClick(View v) {
+                notesViewModel.clearSelection();
+            }
+        });
+        findViewById(R.id.imageDeleteSelected).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showDeleteNotesDialog();
+            }
+        });
+
+        int[] colorViewIds = {
+                R.id.viewSelectedColor1,
+                R.id.viewSelectedColor2,
+                R.id.viewSelectedColor3,
+                R.id.viewSelectedColor4,
+                R.id.viewSelectedColor5
+        };
+        final String[] colors = {"#333333", "#FDBE3B", "#ff4842", "#3a52fc", "#000000"};
+        for (int i = 0; i < colorViewIds.length; i++) {
+            final String color = colors[i];
+            findViewById(colorViewIds[i]).setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    notesViewModel.setSelectedNotesColor(color);
                 }
+            });
+        }
+    }
 
-                else if(requestCode == REQUEST_CODE_ADD_NOTE) {
-                    /**
-                     * Here, request code is REQUEST_CODE_ADD_NOTE, so we are adding an only first
-                     * note (newly added note) from database to noteList and notify the adapter
-                     * for the newly inserted item and scrolling recycler view to the top.
-                     * */
-                    noteList.add(0, notes.get(0));
-                    notesAdapter.notifyItemInserted(0);
-                    notesRecyclerView.smoothScrollToPosition(0);
+    /** Asks before the selected notes are deleted, like for a single note in CreateNoteActivity */
+    private void showDeleteNotesDialog() {
+        if(dialogDeleteNotes == null) {
+            AlertDialog.Builder builder = new AlertDialog.Builder(MainActivity.this);
+            View view = LayoutInflater.from(this).inflate(
+                    R.layout.layout_delete_note,
+                    (ViewGroup) findViewById(R.id.layoutDeleteNoteContainer)
+            );
+            builder.setView(view);
+            textDeleteNotesMessage = view.findViewById(R.id.textDeleteNoteMassage);
+            dialogDeleteNotes = builder.create();
+            if(dialogDeleteNotes.getWindow() != null) {
+                dialogDeleteNotes.getWindow().setBackgroundDrawable(new ColorDrawable(0));
+            }
+
+            view.findViewById(R.id.textDeleteNote).setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    notesViewModel.deleteSelectedNotes();
+                    dialogDeleteNotes.dismiss();
                 }
+            });
 
-                else if (requestCode == REQUEST_CODE_UPDATE_NOTE) {
-                    /**
-                     * Here, request code is REQUEST_CODE_UPDATE_NOTE, so we are removing note
-                     * from the clicked position and adding the latest updated note from same
-                     * position from the database and notify the adapter for item changed at the
-                     * position.
-                     * */
-                    noteList.remove(noteClickedPosition);
-                    if(isNoteDeleted) {
-                        notesAdapter.notifyItemRemoved(noteClickedPosition);
-                    } else {
-                        noteList.add(noteClickedPosition, notes.get(noteClickedPosition));
-                        notesAdapter.notifyItemChanged(noteClickedPosition);
-                    }
+            view.findViewById(R.id.textCancel).setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    dialogDeleteNotes.dismiss();
                 }
-            }
+            });
         }
 
-        new GetNodesTask().execute();
+        int count = notesViewModel.getSelectedNoteIds().getValue().size();
+        textDeleteNotesMessage.setText(count == 1
+                ? "Are you sure you want to delete this note?"
+                : "Are you sure you want to delete these " + count + " notes?");
+        dialogDeleteNotes.show();
     }
 
     /** This function is used to make a custom alert dialog */
@@ -353,4 +484,30 @@ public class MainActivity extends AppCompatActivity implements NoteListener {
         }
         dialogAddUrl.show();
     }
+
+    /**
+     * Prints the metrics of the app and the frames of the current jank session after the state
+     * of the activity:
+     * adb shell dumpsys activity com.example.notebook/.activities.MainActivity
+     * With --reset-metrics they are reset after that, so the next dump shows a single run.
+     * --count-allocations and --stop-counting-allocations turn counting of allocations on and off.
+     * */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        Metrics.dump(prefix, writer);
+        jankMonitor.dump(prefix, writer);
+        List<String> arguments = args != null ? Arrays.asList(args) : Collections.<String>emptyList();
+        if(arguments.contains("--reset-metrics")) {
+            Metrics.reset();
+            writer.println(prefix + "Metrics reset");
+        }
+        if(arguments.contains("--count-allocations")) {
+            Metrics.setCountingAllocations(true);
+            writer.println(prefix + "Counting allocations");
+        } else if(arguments.contains("--stop-counting-allocations")) {
+            Metrics.setCountingAllocations(false);
+            writer.println(prefix + "Not counting allocations");
+        }
+    }
 }
\ No newline at end of file
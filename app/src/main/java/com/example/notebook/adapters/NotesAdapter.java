@@ -1,10 +1,10 @@
 package com.example.notebook.adapters;
 
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.GradientDrawable;
-import android.os.Handler;
-import android.os.Looper;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,48 +12,187 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.notebook.R;
-import com.example.notebook.entities.Note;
+import com.example.notebook.entities.NoteSummary;
+import com.example.notebook.images.ImageLoader;
 import com.example.notebook.listeners.NoteListener;
+import com.example.notebook.metrics.JankMonitor;
+import com.example.notebook.metrics.Metrics;
+import com.example.notebook.search.NoteMatches;
+import com.example.notebook.utilities.NoteDates;
 import com.makeramen.roundedimageview.RoundedImageView;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.Set;
 
-public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHolder>{
+public class NotesAdapter extends ListAdapter<NoteSummary, NotesAdapter.NoteViewHolder> {
+
+    /** Number of columns of the notes grid, used to guess the width of note images */
+    private static final int SPAN_COUNT = 2;
+    private static final String TRACE_BIND = "NotesAdapter.bind";
+
+    /** Notes with an image and notes without one have differently shaped cells */
+    static final int VIEW_TYPE_TEXT = 0;
+    static final int VIEW_TYPE_IMAGE = 1;
+
+    /** How many unused cells of every view type are kept for reuse */
+    private static final int MAX_RECYCLED_VIEWS_PER_TYPE = 20;
+
+    /** Payload of a change which only needs the search highlights to be bound again */
+    private static final Object PAYLOAD_MATCHES = new Object();
+
+    /** Payload of a change which only needs the selection to be bound again */
+    private static final Object PAYLOAD_SELECTION = new Object();
+
+    /**
+     * Two summaries are the same note when they have the same id. Diffs are computed on a
+     * background thread by AsyncListDiffer, so only the changed notes are bound again. The
+     * preview is not shown in the grid and not compared, notes from the list snapshot have none.
+     * */
+    private static final DiffUtil.ItemCallback<NoteSummary> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<NoteSummary>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull NoteSummary oldNote, @NonNull NoteSummary newNote) {
+                    return oldNote.getId() == newNote.getId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull NoteSummary oldNote, @NonNull NoteSummary newNote) {
+                    return equals(oldNote.getTitle(), newNote.getTitle())
+                            && equals(oldNote.getSubTitle(), newNote.getSubTitle())
+                            && oldNote.getCreatedAt() == newNote.getCreatedAt()
+                            && equals(oldNote.getDateTime(), newNote.getDateTime())
+                            && equals(oldNote.getImagePath(), newNote.getImagePath())
+                            && equals(oldNote.getColor(), newNote.getColor());
+                }
+
+                private boolean equals(Object first, Object second) {
+                    return first == null ? second == null : first.equals(second);
+                }
+            };
 
-    private List<Note> notes;
     private NoteListener noteListener;
-    private Timer timer;
-    private List<Note> noteSource;
+    private List<NoteSummary> noteSource = Collections.emptyList();
+    private boolean isShowingSearchResult = false;
+    private Map<Integer, NoteMatches> noteMatches = Collections.emptyMap();
+    private Set<Integer> selectedNoteIds = Collections.emptySet();
+    private List<NoteSummary> dispatchedList;
+    private long diffDispatchStart;
+
+    /** Counted for NotesAdapterScrollBenchmark */
+    @VisibleForTesting
+    int createdViewHolderCount = 0;
+    @VisibleForTesting
+    int boundViewHolderCount = 0;
+    @VisibleForTesting
+    long bindTimeNanos = 0;
 
     /**
-     * Initialize the data set of the Adapter.
-     *
-     * dataSet List<Note> containing the data to populate views to be used
-     * by RecyclerView.
+     * Initialize the Adapter. The notes are given by setNotes() and search results by
+     * setSearchResult(), only summaries are kept here, never the whole note text.
      */
-    public NotesAdapter(List<Note> notes, NoteListener noteListener) {
-        this.notes = notes;
+    public NotesAdapter(NoteListener noteListener) {
+        super(DIFF_CALLBACK);
         this.noteListener = noteListener;
-        noteSource = notes;
+        setHasStableIds(true);
+        registerAdapterDataObserver(diffObserver);
+    }
+
+    /**
+     * Times how long the main thread dispatches a diff, for JankMonitor. The differ sets the new
+     * list, notifies the changes and then calls onCurrentListChanged(), so the first notification
+     * for a new list starts the dispatch. Notifications for the shown list, like of the
+     * selection, are not part of a diff.
+     * */
+    private final RecyclerView.AdapterDataObserver diffObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            onDiffNotified();
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            onDiffNotified();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            onDiffNotified();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            onDiffNotified();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            onDiffNotified();
+        }
+    };
+
+    private void onDiffNotified() {
+        if(getCurrentList() != dispatchedList) {
+            dispatchedList = getCurrentList();
+            diffDispatchStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void onCurrentListChanged(@NonNull List<NoteSummary> previousList, @NonNull List<NoteSummary> currentList) {
+        if(diffDispatchStart != 0) {
+            JankMonitor.recordWork(JankMonitor.WORK_DIFF, System.nanoTime() - diffDispatchStart);
+            diffDispatchStart = 0;
+        }
+        dispatchedList = currentList;
     }
 
     /** Create new views (invoked by the layout manager) */
     @NonNull
     @Override
     public NoteViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        long createStart = System.nanoTime();
         /** Create a new view, which defines the UI of the list item */
         View view = LayoutInflater.from(parent.getContext()).inflate(
                 R.layout.item_container_note,
                 parent,
                 false
         );
-        return new NoteViewHolder(view);
+        int parentWidth = parent.getWidth() > 0
+                ? parent.getWidth()
+                : parent.getResources().getDisplayMetrics().widthPixels;
+        final NoteViewHolder holder = new NoteViewHolder(view, parentWidth / SPAN_COUNT);
+        createdViewHolderCount++;
+        holder.layoutNote.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = holder.getBindingAdapterPosition();
+                if(position != RecyclerView.NO_POSITION) {
+                    noteListener.onNoteClicked(getItem(position), position);
+                }
+            }
+        });
+        holder.layoutNote.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                int position = holder.getBindingAdapterPosition();
+                if(position == RecyclerView.NO_POSITION) {
+                    return false;
+                }
+                noteListener.onNoteLongClicked(getItem(position), position);
+                return true;
+            }
+        });
+        JankMonitor.recordWork(JankMonitor.WORK_BIND, System.nanoTime() - createStart);
+        return holder;
     }
 
     /** Replace the contents of a view (invoked by the layout manager) */
@@ -61,24 +200,68 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
     public void onBindViewHolder(@NonNull NoteViewHolder holder, int position) {
         /** Get element from your dataSet at this position and replace the
          *  contents of the view with that element */
-        holder.setNote(notes.get(position));
-        holder.layoutNote.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                noteListener.onNoteClicked(notes.get(position), position);
+        long bindStart = Metrics.begin(TRACE_BIND);
+        NoteSummary note = getItem(position);
+        holder.setNote(note, noteMatches.get(note.getId()));
+        holder.setSelected(!selectedNoteIds.isEmpty(), selectedNoteIds.contains(note.getId()));
+        long bindNanos = System.nanoTime() - bindStart;
+        bindTimeNanos += bindNanos;
+        JankMonitor.recordWork(JankMonitor.WORK_BIND, bindNanos);
+        Metrics.end(TRACE_BIND, bindStart);
+        boundViewHolderCount++;
+    }
+
+    /** Only the highlights or the selection are bound again when they are the only thing that changed */
+    @Override
+    public void onBindViewHolder(@NonNull NoteViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if(payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        for (Object payload : payloads) {
+            if(payload != PAYLOAD_MATCHES && payload != PAYLOAD_SELECTION) {
+                onBindViewHolder(holder, position);
+                return;
             }
-        });
+        }
+        NoteSummary note = getItem(position);
+        if(payloads.contains(PAYLOAD_MATCHES)) {
+            holder.setMatches(note, noteMatches.get(note.getId()));
+        }
+        if(payloads.contains(PAYLOAD_SELECTION)) {
+            holder.setSelected(!selectedNoteIds.isEmpty(), selectedNoteIds.contains(note.getId()));
+        }
     }
 
+    /** The view may be bound to another note now, so its image load is not needed anymore */
     @Override
-    public int getItemCount() {
-        return notes.size();
+    public void onViewRecycled(@NonNull NoteViewHolder holder) {
+        super.onViewRecycled(holder);
+        ImageLoader.getInstance(holder.itemView.getContext()).cancel(holder.imageNote);
+        holder.imageNote.setImageDrawable(null);
     }
 
-    /** Return the size of your dataset (invoked by the layout manager) */
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
+
+    /**
+     * Cells are reused between notes of the same view type, so a cell with an image is never
+     * rebound to a note without one and the other way round.
+     * */
     @Override
     public int getItemViewType(int position) {
-        return position;
+        String imagePath = getItem(position).getImagePath();
+        return imagePath != null && !imagePath.trim().isEmpty() ? VIEW_TYPE_IMAGE : VIEW_TYPE_TEXT;
+    }
+
+    /** The pool of unused cells for the notes grid, with room for every view type */
+    public static RecyclerView.RecycledViewPool createRecycledViewPool() {
+        RecyclerView.RecycledViewPool recycledViewPool = new RecyclerView.RecycledViewPool();
+        recycledViewPool.setMaxRecycledViews(VIEW_TYPE_TEXT, MAX_RECYCLED_VIEWS_PER_TYPE);
+        recycledViewPool.setMaxRecycledViews(VIEW_TYPE_IMAGE, MAX_RECYCLED_VIEWS_PER_TYPE);
+        return recycledViewPool;
     }
 
     /**
@@ -87,13 +270,18 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
      */
     static class NoteViewHolder extends RecyclerView.ViewHolder {
 
+        private static final int HIGHLIGHT_COLOR = 0x66FFFFFF;
+        private static final float UNSELECTED_ALPHA = 0.4f;
+
         TextView textTitle, textSubTitle, textDateTime;
         LinearLayout layoutNote;
 
         RoundedImageView imageNote;
+        int imageWidth;
 
-        NoteViewHolder(@NonNull View itemView) {
+        NoteViewHolder(@NonNull View itemView, int imageWidth) {
             super(itemView);
+            this.imageWidth = imageWidth;
             /** Define click listener for the ViewHolder's View */
 
             textTitle = itemView.findViewById(R.id.textTitle);
@@ -103,14 +291,18 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
             imageNote = itemView.findViewById(R.id.imageNote);
         }
 
-        void setNote(Note note) {
-            textTitle.setText(note.getTitle());
+        /** matches is null when no search is shown or nothing is highlighted in this note */
+        void setNote(NoteSummary note, NoteMatches matches) {
+            setMatches(note, matches);
             if(note.getSubTitle().trim().isEmpty()) {
                 textSubTitle.setVisibility(View.GONE);
             } else {
-                textSubTitle.setText(note.getSubTitle());
+                textSubTitle.setVisibility(View.VISIBLE);
             }
-            textDateTime.setText(note.getDateTime());
+            /** The time is stored as a number and only formatted here, for the shown notes */
+            textDateTime.setText(note.getCreatedAt() > 0
+                    ? NoteDates.format(note.getCreatedAt())
+                    : note.getDateTime());
 
             /** Setting Note color */
             GradientDrawable gradientDrawable = (GradientDrawable) layoutNote.getBackground();
@@ -120,51 +312,94 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
                 gradientDrawable.setColor(Color.parseColor("#333333"));
             }
 
-            /** In this part image string file has been converted in Bitmap and
-             * this is placed in imageNote */
-            if(note.getImagePath() != null) {
-                imageNote.setImageBitmap(BitmapFactory.decodeFile(note.getImagePath()));
+            /** In this part image file is decoded in background, downsampled to the width of
+             * the note, and placed in imageNote when it's ready */
+            if(note.getImagePath() != null && !note.getImagePath().trim().isEmpty()) {
                 imageNote.setVisibility(View.VISIBLE);
+                ImageLoader.getInstance(itemView.getContext()).load(note.getImagePath(), imageNote, imageWidth);
             } else {
+                ImageLoader.getInstance(itemView.getContext()).cancel(imageNote);
                 imageNote.setVisibility(View.GONE);
             }
         }
+
+        /** While notes are selected, the notes which are not selected are dimmed */
+        void setSelected(boolean isSelecting, boolean isSelected) {
+            itemView.setAlpha(isSelecting && !isSelected ? UNSELECTED_ALPHA : 1f);
+        }
+
+        /** Binds only the title and the subtitle with their search highlights */
+        void setMatches(NoteSummary note, NoteMatches matches) {
+            textTitle.setText(highlight(note.getTitle(), matches == null ? null : matches.getTitleRanges()));
+            if(!note.getSubTitle().trim().isEmpty()) {
+                textSubTitle.setText(
+                        highlight(note.getSubTitle(), matches == null ? null : matches.getSubTitleRanges())
+                );
+            }
+        }
+
+        /** Marks the parts of the text matched by the search, ranges are start and end pairs */
+        private static CharSequence highlight(String text, int[] ranges) {
+            if(text == null || ranges == null || ranges.length == 0) {
+                return text;
+            }
+            SpannableString spannable = new SpannableString(text);
+            for (int i = 0; i + 1 < ranges.length; i += 2) {
+                spannable.setSpan(
+                        new BackgroundColorSpan(HIGHLIGHT_COLOR),
+                        ranges[i],
+                        ranges[i + 1],
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE
+                );
+            }
+            return spannable;
+        }
+    }
+
+    /**
+     * Sets the loaded notes. A copy is kept, so the caller can keep changing its list. While a
+     * search result is shown the notes are only remembered for when the search is cleared.
+     * */
+    public void setNotes(List<NoteSummary> notes) {
+        setNotes(notes, null);
+    }
+
+    /** onShown is run when the notes are shown in the grid, it's not run while a search result is shown */
+    public void setNotes(List<NoteSummary> notes, Runnable onShown) {
+        noteSource = new ArrayList<>(notes);
+        if(!isShowingSearchResult) {
+            submitList(noteSource, onShown);
+        }
+    }
+
+    /** Shows which notes are selected, an empty set ends the selection */
+    public void setSelectedNoteIds(Set<Integer> noteIds) {
+        selectedNoteIds = noteIds;
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+    }
+
+    public boolean isShowingSearchResult() {
+        return isShowingSearchResult;
     }
 
     /**
-     * For searching in Note*/
-    public void searchNotes(final String searchKeyWord) {
-        timer = new Timer();
-        timer.schedule(new TimerTask() {
+     * Shows the result of a search, or the notes again when notes is null. The search is done by
+     * the notes_fts index in database, so all notes are searched, not only the loaded ones. The
+     * difference to the shown list is computed in background. The matched words in title and
+     * subtitle are highlighted.
+     * */
+    public void setSearchResult(List<NoteSummary> notes, Map<Integer, NoteMatches> matches) {
+        final boolean matchesChanged = !noteMatches.isEmpty() || (matches != null && !matches.isEmpty());
+        isShowingSearchResult = notes != null;
+        noteMatches = notes == null || matches == null ? Collections.<Integer, NoteMatches>emptyMap() : matches;
+        submitList(notes == null ? noteSource : notes, new Runnable() {
             @Override
             public void run() {
-                if(searchKeyWord.trim().isEmpty()) {
-                    notes = noteSource;
-                } else {
-                    ArrayList<Note> temp = new ArrayList<>();
-                    for (Note note : noteSource) {
-                        if(note.getTitle().toLowerCase().contains(searchKeyWord.toLowerCase())
-                        || note.getSubTitle().toLowerCase().contains(searchKeyWord.toLowerCase())
-                        || note.getNoteText().toLowerCase().contains(searchKeyWord.toLowerCase())) {
-                            temp.add(note);
-                        }
-                    }
-                    notes = temp;
+                if(matchesChanged) {
+                    notifyItemRangeChanged(0, getItemCount(), PAYLOAD_MATCHES);
                 }
-                new Handler(Looper.getMainLooper()).post(new Runnable() {
-                    @Override
-                    public void run() {
-                        notifyDataSetChanged();
-                    }
-                });
             }
-        }, 500);
-    }
-
-    public void cancelTimer() {
-        if(timer != null) {
-            timer.cancel();
-        }
+        });
     }
 
 }
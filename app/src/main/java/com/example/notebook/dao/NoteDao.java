@@ -1,24 +1,196 @@
 package com.example.notebook.dao;
 
+import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
-import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
+import androidx.room.Update;
 
 import com.example.notebook.entities.Note;
+import com.example.notebook.entities.NoteSearchResult;
+import com.example.notebook.entities.NoteSummary;
 
 import java.util.List;
 
 @Dao
 public interface NoteDao {
 
-    @Query("SELECT * FROM notes ORDER BY id DESC")
-    List<Note> getAllNotes();
+    /** SQLite allows at most 999 query parameters, longer id lists are split into batches of this size */
+    int MAX_IDS_PER_STATEMENT = 500;
 
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertNote(Note note);
+    /**
+     * Keyset pagination for the notes grid. Every next page starts right after the id of the
+     * last note we already have, so SQLite can jump there through the primary key instead of
+     * counting and skipping rows like OFFSET does.
+     * Pages are NoteSummary projections, the note text is never read for the grid.
+     * */
+    @Query("SELECT id, title, date_time, created_at, updated_at, sub_title, note_preview, image_path, color FROM notes " +
+            "WHERE id < :lastId ORDER BY id DESC LIMIT :limit")
+    List<NoteSummary> getNotesPageBefore(int lastId, int limit);
+
+    /** The notes from fromId up to but not including beforeId, newest first, through the primary key like the pages */
+    @Query("SELECT id, title, date_time, created_at, updated_at, sub_title, note_preview, image_path, color FROM notes " +
+            "WHERE id >= :fromId AND id < :beforeId ORDER BY id DESC")
+    List<NoteSummary> getNotesBetween(int fromId, int beforeId);
+
+    /**
+     * The newest notes, at most limit of them. Room runs the query again whenever the notes
+     * table is changed by any write, so observers always get the current notes. The query walks
+     * the primary key from the newest note and stops after limit rows.
+     * */
+    @Query("SELECT id, title, date_time, created_at, updated_at, sub_title, note_preview, image_path, color FROM notes " +
+            "ORDER BY id DESC LIMIT :limit")
+    LiveData<List<NoteSummary>> observeNotes(int limit);
+
+    /**
+     * The notes from fromId on, including the ones added later. Once more pages are loaded the
+     * first page is observed by its id range, so no note moves out of it into the next page.
+     * */
+    @Query("SELECT id, title, date_time, created_at, updated_at, sub_title, note_preview, image_path, color FROM notes " +
+            "WHERE id >= :fromId ORDER BY id DESC")
+    LiveData<List<NoteSummary>> observeNotesFrom(int fromId);
+
+    /**
+     * The most recently changed notes first, at most limit of them. It's read backwards through
+     * the updated_at index, the id breaks ties between notes changed at the same time.
+     * */
+    @Query("SELECT id, title, date_time, created_at, updated_at, sub_title, note_preview, image_path, color FROM notes " +
+            "ORDER BY updated_at DESC, id DESC LIMIT :limit")
+    LiveData<List<NoteSummary>> observeNotesByUpdatedAt(int limit);
+
+    /**
+     * Notes created or changed in a time range, newest first. from and to are epoch
+     * milliseconds, both included. Only the matching part of the index is scanned.
+     * */
+    @Query("SELECT id, title, date_time, created_at, updated_at, sub_title, note_preview, image_path, color FROM notes " +
+            "WHERE created_at BETWEEN :from AND :to ORDER BY created_at DESC LIMIT :limit")
+    List<NoteSummary> getNotesCreatedBetween(long from, long to, int limit);
+
+    @Query("SELECT id, title, date_time, created_at, updated_at, sub_title, note_preview, image_path, color FROM notes " +
+            "WHERE updated_at BETWEEN :from AND :to ORDER BY updated_at DESC LIMIT :limit")
+    List<NoteSummary> getNotesUpdatedBetween(long from, long to, int limit);
+
+    @Query("SELECT * FROM notes WHERE id = :id")
+    Note getNoteById(int id);
+
+    /** At most 999 ids can be passed at once, that's the SQLite limit of query parameters */
+    @Query("SELECT * FROM notes WHERE id IN (:ids)")
+    List<Note> getNotesByIds(List<Integer> ids);
+
+    /** At most 999 ids can be passed at once, that's the SQLite limit of query parameters */
+    @Query("SELECT id, title, date_time, created_at, updated_at, sub_title, note_preview, image_path, color FROM notes " +
+            "WHERE id IN (:ids)")
+    List<NoteSummary> getNoteSummariesByIds(List<Integer> ids);
+
+    /** The images notes use, for deleting the imported images which no note uses anymore */
+    @Query("SELECT DISTINCT image_path FROM notes WHERE image_path IS NOT NULL AND image_path != ''")
+    List<String> getImagePaths();
+
+    /**
+     * Full text search through the notes_fts index. The query must be an FTS4 MATCH expression,
+     * see NoteSearch.buildMatchQuery(). Every match is returned, but only with its id and its
+     * matchinfo(), so all of them are ranked by NoteSearch.rank() before any is cut off. Only the
+     * best ones are read with getNoteSummariesByIds() then.
+     * */
+    @Query("SELECT rowid AS id, matchinfo(notes_fts, 'pcx') AS match_info FROM notes_fts " +
+            "WHERE notes_fts MATCH :query")
+    List<NoteSearchResult> searchNotes(String query);
+
+    /** Inserts a new note and returns its row id. Existing notes are changed with the updates below. */
+    @Insert
+    long insertNote(Note note);
+
+    /**
+     * Writes the whole note in place. Use updateNoteIfCurrent(), which checks the version first.
+     * Returns the number of updated notes.
+     * */
+    @Update
+    int updateNote(Note note);
+
+    @Query("SELECT version FROM notes WHERE id = :id")
+    Integer getNoteVersion(int id);
+
+    /**
+     * Optimistic update of the whole note. It's written only if the note in database still has
+     * expectedVersion, then its version is raised by one. Returns 0 when the note was changed or
+     * deleted meanwhile, nothing is written then.
+     * */
+    @Transaction
+    default int updateNoteIfCurrent(Note note, int expectedVersion) {
+        Integer version = getNoteVersion(note.getId());
+        if(version == null || version != expectedVersion) {
+            return 0;
+        }
+        note.setVersion(expectedVersion + 1);
+        return updateNote(note);
+    }
+
+    /**
+     * Updates of single columns for small edits, so the rest of a large note is not bound and
+     * written again. Like updateNoteIfCurrent() they only update the note if it still has the
+     * given version and return 0 otherwise.
+     * */
+    @Query("UPDATE notes SET color = :color, updated_at = :updatedAt, version = version + 1 " +
+            "WHERE id = :id AND version = :expectedVersion")
+    int updateNoteColor(int id, String color, long updatedAt, int expectedVersion);
+
+    @Query("UPDATE notes SET web_link = :webLink, updated_at = :updatedAt, version = version + 1 " +
+            "WHERE id = :id AND version = :expectedVersion")
+    int updateNoteWebLink(int id, String webLink, long updatedAt, int expectedVersion);
+
+    @Query("UPDATE notes SET image_path = :imagePath, updated_at = :updatedAt, version = version + 1 " +
+            "WHERE id = :id AND version = :expectedVersion")
+    int updateNoteImagePath(int id, String imagePath, long updatedAt, int expectedVersion);
+
+    @Query("UPDATE notes SET note_text = :noteText, note_preview = :notePreview, updated_at = :updatedAt, " +
+            "version = version + 1 WHERE id = :id AND version = :expectedVersion")
+    int updateNoteText(int id, String noteText, String notePreview, long updatedAt, int expectedVersion);
 
     @Delete
     void deleteNote(Note note);
+
+    /**
+     * Bulk operations. Room runs each of them in one transaction, so changing hundreds of notes
+     * costs one commit and not one per note.
+     * */
+    @Insert
+    List<Long> insertNotes(List<Note> notes);
+
+    @Update
+    int updateNotes(List<Note> notes);
+
+    @Delete
+    int deleteNotes(List<Note> notes);
+
+    @Query("DELETE FROM notes WHERE id IN (:ids)")
+    int deleteNotesBatch(List<Integer> ids);
+
+    @Query("UPDATE notes SET color = :color, updated_at = :updatedAt, version = version + 1 WHERE id IN (:ids)")
+    int updateNotesColorBatch(List<Integer> ids, String color, long updatedAt);
+
+    /** Deletes the notes with the given ids in one transaction and returns how many were deleted */
+    @Transaction
+    default int deleteNotesByIds(List<Integer> ids) {
+        int deleted = 0;
+        for (int start = 0; start < ids.size(); start += MAX_IDS_PER_STATEMENT) {
+            deleted += deleteNotesBatch(ids.subList(start, Math.min(ids.size(), start + MAX_IDS_PER_STATEMENT)));
+        }
+        return deleted;
+    }
+
+    /** Sets the color of the notes with the given ids in one transaction and returns how many were changed */
+    @Transaction
+    default int updateNotesColor(List<Integer> ids, String color, long updatedAt) {
+        int updated = 0;
+        for (int start = 0; start < ids.size(); start += MAX_IDS_PER_STATEMENT) {
+            updated += updateNotesColorBatch(
+                    ids.subList(start, Math.min(ids.size(), start + MAX_IDS_PER_STATEMENT)),
+                    color,
+                    updatedAt
+            );
+        }
+        return updated;
+    }
 }
@@ -1,28 +1,248 @@
 package com.example.notebook.database;
 
 import android.content.Context;
+import android.database.Cursor;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
 
 import com.example.notebook.dao.NoteDao;
 import com.example.notebook.entities.Note;
+import com.example.notebook.entities.NoteFts;
+import com.example.notebook.metrics.Metrics;
+import com.example.notebook.utilities.AppExecutors;
+import com.example.notebook.utilities.NoteDates;
 
-@Database(entities = Note.class, version = 1, exportSchema = false)
+/**
+ * The notes database. Its schema is exported to app/schemas for every version. A change of the
+ * schema raises VERSION and adds a Migration to ALL_MIGRATIONS, so the notes of users are kept.
+ * Migrations are tested by NotesDatabaseMigrationTest.
+ * */
+@Database(entities = {Note.class, NoteFts.class}, version = NotesDatabase.VERSION, exportSchema = true)
 public abstract class NotesDatabase extends RoomDatabase {
 
-    private static NotesDatabase notesDatabase;
+    static final int VERSION = 5;
 
-    public static synchronized NotesDatabase getDatabase(Context context) {
-        if(notesDatabase == null) {
-            notesDatabase = Room.databaseBuilder(
-                    context,
-                    NotesDatabase.class,
-                    "notes_db"
-            ).build();
+    private static final String DATABASE_NAME = "notes_db";
+    private static final String TRACE_OPEN = "NotesDatabase.open";
+
+    private static volatile NotesDatabase notesDatabase;
+
+    /**
+     * The update triggers which keep notes_fts in sync with notes. Room generates them for any
+     * update of a note, these only fire when an indexed column is written, so a change of the
+     * color, link, image or version of a note doesn't remove and add its index row again.
+     * They have the names of Room's triggers and replace them, see replaceFtsUpdateTriggers().
+     * */
+    private static final String FTS_BEFORE_UPDATE_TRIGGER = "room_fts_content_sync_notes_fts_BEFORE_UPDATE";
+    private static final String FTS_AFTER_UPDATE_TRIGGER = "room_fts_content_sync_notes_fts_AFTER_UPDATE";
+    private static final String CREATE_FTS_BEFORE_UPDATE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS " + FTS_BEFORE_UPDATE_TRIGGER + " "
+                    + "BEFORE UPDATE OF `title`, `sub_title`, `note_text` ON `notes` BEGIN DELETE FROM `notes_fts` "
+                    + "WHERE `docid`=OLD.`rowid`; END";
+    private static final String CREATE_FTS_AFTER_UPDATE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS " + FTS_AFTER_UPDATE_TRIGGER + " "
+                    + "AFTER UPDATE OF `title`, `sub_title`, `note_text` ON `notes` BEGIN INSERT INTO `notes_fts`"
+                    + "(`docid`, `title`, `sub_title`, `note_text`) VALUES "
+                    + "(NEW.`rowid`, NEW.`title`, NEW.`sub_title`, NEW.`note_text`); END";
+
+    /**
+     * Room creates its own update triggers with every new database and can't be told otherwise,
+     * they are replaced by the ones above. A database which was created or migrated with Room's
+     * triggers has them replaced when it's opened, that's only a query when it's done already.
+     * */
+    private static final RoomDatabase.Callback REPLACE_FTS_UPDATE_TRIGGERS = new RoomDatabase.Callback() {
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase database) {
+            replaceFtsUpdateTriggers(database);
+        }
+
+        @Override
+        public void onOpen(@NonNull SupportSQLiteDatabase database) {
+            Cursor cursor = database.query(
+                    "SELECT count(*) FROM sqlite_master WHERE type = 'trigger' AND name IN (?, ?) "
+                            + "AND sql NOT LIKE '%UPDATE OF%'",
+                    new Object[] {FTS_BEFORE_UPDATE_TRIGGER, FTS_AFTER_UPDATE_TRIGGER}
+            );
+            try {
+                if(cursor.moveToFirst() && cursor.getInt(0) > 0) {
+                    replaceFtsUpdateTriggers(database);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    };
+
+    /** Adds the note_preview column and fills it for the notes which already exist */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE notes ADD COLUMN note_preview TEXT");
+            database.execSQL("UPDATE notes SET note_preview = substr(note_text, 1, "
+                    + Note.PREVIEW_LENGTH + ")");
         }
-        return notesDatabase;
+    };
+
+    /**
+     * Creates the notes_fts index with the same triggers Room generates for it, then fills the
+     * index with the notes which already exist.
+     * */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `notes_fts` USING FTS4("
+                    + "`title` TEXT, `sub_title` TEXT, `note_text` TEXT, content=`notes`)");
+            database.execSQL(CREATE_FTS_BEFORE_UPDATE_TRIGGER);
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_BEFORE_DELETE "
+                    + "BEFORE DELETE ON `notes` BEGIN DELETE FROM `notes_fts` "
+                    + "WHERE `docid`=OLD.`rowid`; END");
+            database.execSQL(CREATE_FTS_AFTER_UPDATE_TRIGGER);
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_AFTER_INSERT "
+                    + "AFTER INSERT ON `notes` BEGIN INSERT INTO `notes_fts`"
+                    + "(`docid`, `title`, `sub_title`, `note_text`) VALUES "
+                    + "(NEW.`rowid`, NEW.`title`, NEW.`sub_title`, NEW.`note_text`); END");
+            database.execSQL("INSERT INTO notes_fts(notes_fts) VALUES ('rebuild')");
+        }
+    };
+
+    /** Adds the version column, notes which already exist start at version 0 */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE notes ADD COLUMN version INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Adds the created_at and updated_at columns with their indexes. They are filled from the
+     * date_time strings, notes whose date_time can't be read keep 0. No indexed text changes, so
+     * the notes_fts update triggers are dropped while the columns are filled and created again
+     * afterwards, only for the indexed columns. A database created by Room has triggers which
+     * fire for every column, every note would be removed from and added to the index again.
+     * The indexes are created after the columns are filled, which is faster than keeping them
+     * up to date row by row.
+     * */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE notes ADD COLUMN created_at INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE notes ADD COLUMN updated_at INTEGER NOT NULL DEFAULT 0");
+
+            database.execSQL("DROP TRIGGER IF EXISTS " + FTS_BEFORE_UPDATE_TRIGGER);
+            database.execSQL("DROP TRIGGER IF EXISTS " + FTS_AFTER_UPDATE_TRIGGER);
+            SupportSQLiteStatement update = database.compileStatement(
+                    "UPDATE notes SET created_at = ?, updated_at = ? WHERE id = ?"
+            );
+            NoteDates.DateTimeParser dateTimeParser = new NoteDates.DateTimeParser();
+            Cursor cursor = database.query("SELECT id, date_time FROM notes");
+            try {
+                while (cursor.moveToNext()) {
+                    long time = dateTimeParser.parse(cursor.getString(1));
+                    if(time == 0) {
+                        continue;
+                    }
+                    update.bindLong(1, time);
+                    update.bindLong(2, time);
+                    update.bindLong(3, cursor.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            } finally {
+                cursor.close();
+            }
+            database.execSQL(CREATE_FTS_BEFORE_UPDATE_TRIGGER);
+            database.execSQL(CREATE_FTS_AFTER_UPDATE_TRIGGER);
+
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_created_at` ON `notes` (`created_at`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_updated_at` ON `notes` (`updated_at`)");
+        }
+    };
+
+    static void replaceFtsUpdateTriggers(SupportSQLiteDatabase database) {
+        database.beginTransaction();
+        try {
+            database.execSQL("DROP TRIGGER IF EXISTS " + FTS_BEFORE_UPDATE_TRIGGER);
+            database.execSQL("DROP TRIGGER IF EXISTS " + FTS_AFTER_UPDATE_TRIGGER);
+            database.execSQL(CREATE_FTS_BEFORE_UPDATE_TRIGGER);
+            database.execSQL(CREATE_FTS_AFTER_UPDATE_TRIGGER);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /** Every migration, in order. Room picks the ones it needs to reach VERSION. */
+    static final Migration[] ALL_MIGRATIONS = {
+            MIGRATION_1_2,
+            MIGRATION_2_3,
+            MIGRATION_3_4,
+            MIGRATION_4_5
+    };
+
+    /**
+     * Returns the database, it's built on the first call. Building is cheap, the file is only
+     * opened, migrated and validated by the first query, or ahead of time by prewarm(). After
+     * the first call no lock is taken anymore.
+     * */
+    public static NotesDatabase getDatabase(Context context) {
+        NotesDatabase database = notesDatabase;
+        if(database == null) {
+            synchronized (NotesDatabase.class) {
+                database = notesDatabase;
+                if(database == null) {
+                    database = build(context.getApplicationContext());
+                    notesDatabase = database;
+                }
+            }
+        }
+        return database;
+    }
+
+    /**
+     * Opens the database on a background thread, so the first query of the first screen doesn't
+     * pay for opening, migrating and validating it. Called when the app is created.
+     * */
+    public static void prewarm(final Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        AppExecutors.getInstance().databaseRead().execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = Metrics.begin(TRACE_OPEN);
+                try {
+                    getDatabase(applicationContext).getOpenHelper().getWritableDatabase();
+                } finally {
+                    Metrics.end(TRACE_OPEN, start);
+                }
+            }
+        });
+    }
+
+    /**
+     * All settings of the database in one place:
+     * WAL lets reads run while a write is going on, instead of waiting for it.
+     * The notes_fts update triggers only fire for the indexed columns.
+     * Queries, including the ones behind LiveData, run on the database read executor and
+     * transactions on the database write executor of AppExecutors, instead of Room's shared
+     * default pool.
+     * */
+    private static NotesDatabase build(Context context) {
+        AppExecutors appExecutors = AppExecutors.getInstance();
+        return Room.databaseBuilder(
+                context,
+                NotesDatabase.class,
+                DATABASE_NAME
+        )
+                .addMigrations(ALL_MIGRATIONS)
+                .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
+                .setQueryExecutor(appExecutors.databaseRead())
+                .setTransactionExecutor(appExecutors.databaseWrite())
+                .addCallback(REPLACE_FTS_UPDATE_TRIGGERS)
+                .build();
     }
 
 
@@ -3,18 +3,21 @@ package com.example.notebook.entities;
 import androidx.annotation.NonNull;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-import java.io.Serializable;
+/**
+ * Notes are not passed between activities, only their ids are. The editor gets the note from
+ * NoteRepository, so a large note is never serialized into an Intent.
+ * */
+@Entity(
+        tableName = "notes",
+        indices = {@Index(value = "created_at"), @Index(value = "updated_at")}
+)
+public class Note {
 
-@Entity(tableName = "notes")
-
-// That Serializable is a marker interface means that it
-// contains no methods. Therefore, a class implementing
-// Serializable does not have to implement any specific methods.
-// Implementing Serializable thus just tells the Java serialization
-// classes that this class is intended for object serialization.
-public class Note implements Serializable {
+    /** Number of characters (code points) of the note text which are stored in the preview column */
+    public static final int PREVIEW_LENGTH = 150;
 
     @PrimaryKey(autoGenerate = true)
     private int id;
@@ -22,15 +25,33 @@ public class Note implements Serializable {
     @ColumnInfo(name = "title")
     private String title;
 
+    /** The creation time as it was shown when the note was saved, only kept for older versions */
     @ColumnInfo(name = "date_time")
     private String dateTime;
 
+    /**
+     * Creation and last change of the note, in epoch milliseconds. Both are indexed, so notes
+     * can be sorted and filtered by time. They are formatted only when they are shown.
+     * */
+    @ColumnInfo(name = "created_at", defaultValue = "0")
+    private long createdAt;
+
+    @ColumnInfo(name = "updated_at", defaultValue = "0")
+    private long updatedAt;
+
     @ColumnInfo(name = "sub_title")
     private String subTitle;
 
     @ColumnInfo(name = "note_text")
     private String noteText;
 
+    /**
+     * Beginning of the note text. It is kept up to date by setNoteText() so the notes grid
+     * can show and search it without reading the whole note text.
+     * */
+    @ColumnInfo(name = "note_preview")
+    private String notePreview;
+
     @ColumnInfo(name = "image_path")
     private String imagePath;
 
@@ -40,6 +61,38 @@ public class Note implements Serializable {
     @ColumnInfo(name = "web_link")
     private String webLink;
 
+    /**
+     * Raised by every update of the note. An update only succeeds when the note in database
+     * still has the version the update was based on, so two saves can't silently overwrite
+     * each other.
+     * */
+    @ColumnInfo(name = "version", defaultValue = "0")
+    private int version;
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     public int getId() {
         return id;
     }
@@ -78,6 +131,27 @@ public class Note implements Serializable {
 
     public void setNoteText(String noteText) {
         this.noteText = noteText;
+        this.notePreview = buildPreview(noteText);
+    }
+
+    public String getNotePreview() {
+        return notePreview;
+    }
+
+    public void setNotePreview(String notePreview) {
+        this.notePreview = notePreview;
+    }
+
+    /**
+     * The same as substr(note_text, 1, PREVIEW_LENGTH) used in the database migration. SQLite counts
+     * characters (code points) there, not UTF-16 units, so an emoji is never cut in half.
+     * */
+    public static String buildPreview(String noteText) {
+        if(noteText == null || noteText.length() <= PREVIEW_LENGTH
+                || noteText.codePointCount(0, noteText.length()) <= PREVIEW_LENGTH) {
+            return noteText;
+        }
+        return noteText.substring(0, noteText.offsetByCodePoints(0, PREVIEW_LENGTH));
     }
 
     public String getImagePath() {
@@ -0,0 +1,48 @@
+package com.example.notebook.entities;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+
+/**
+ * Full text search index of the notes table. It is an external content FTS4 table, so the text is
+ * not stored twice. Room creates triggers which keep the index in sync whenever a note is
+ * inserted, updated or deleted.
+ * */
+@Fts4(contentEntity = Note.class)
+@Entity(tableName = "notes_fts")
+public class NoteFts {
+
+    @ColumnInfo(name = "title")
+    private String title;
+
+    @ColumnInfo(name = "sub_title")
+    private String subTitle;
+
+    @ColumnInfo(name = "note_text")
+    private String noteText;
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getSubTitle() {
+        return subTitle;
+    }
+
+    public void setSubTitle(String subTitle) {
+        this.subTitle = subTitle;
+    }
+
+    public String getNoteText() {
+        return noteText;
+    }
+
+    public void setNoteText(String noteText) {
+        this.noteText = noteText;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.notebook.entities;
+
+import androidx.room.ColumnInfo;
+
+/**
+ * A note found by the full text search, only its id together with the matchinfo() blob of FTS4,
+ * which is used to rank the results. The summaries of the best ranked notes are read afterwards.
+ * */
+public class NoteSearchResult {
+
+    @ColumnInfo(name = "id")
+    private int id;
+
+    @ColumnInfo(name = "match_info")
+    private byte[] matchInfo;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public byte[] getMatchInfo() {
+        return matchInfo;
+    }
+
+    public void setMatchInfo(byte[] matchInfo) {
+        this.matchInfo = matchInfo;
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.notebook.images;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.notebook.utilities.AppExecutors;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Copies picked images into the private storage of the app.
+ *
+ * The copy is named by the SHA-256 hash of its content, so attaching the same image twice reuses
+ * the file which is already there. Notes then keep the path of the private copy, which is fast to
+ * read, needs no storage permission and keeps working when the original is moved or deleted.
+ *
+ * Notes don't use the imported image as it is, but a working copy which is scaled down to at
+ * most MAX_IMAGE_DIMENSION pixels and encoded as JPEG (PNG if it has transparency). The original
+ * is kept next to it only if the user opted in with setKeepingOriginals().
+ *
+ * Nothing is deleted when a note is deleted or gets another image, other notes may use the same
+ * file. deleteUnusedImages() deletes the files no note uses anymore, at most once a day.
+ * */
+public class ImageImporter {
+
+    private static final String TAG = "ImageImporter";
+    private static final String IMAGES_DIRECTORY = "images";
+    private static final String WORKING_COPY_SUFFIX = ".w";
+    private static final int MAX_IMAGE_DIMENSION = 1600;
+    private static final int JPEG_QUALITY = 80;
+
+    private static final String PREFERENCES_NAME = "images";
+    private static final String KEY_KEEP_ORIGINALS = "keep_original_images";
+    private static final String KEY_LAST_CLEANUP = "last_cleanup";
+
+    private static final long CLEANUP_INTERVAL_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Files changed more recently are never deleted. An image is imported before its note is
+     * saved, and an editor may be open with it for a while.
+     * */
+    private static final long UNUSED_IMAGE_AGE_MILLIS = 24L * 60 * 60 * 1000;
+
+    public interface Callback {
+        /** Called on the main thread, path is null if the image couldn't be imported */
+        void onImageImported(String path);
+    }
+
+    private ImageImporter() {
+    }
+
+    public static void importImage(Context context, final Uri uri, final Callback callback) {
+        final Context applicationContext = context.getApplicationContext();
+        final AppExecutors appExecutors = AppExecutors.getInstance();
+        appExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                final String path = copyToPrivateStorage(applicationContext, uri);
+                appExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onImageImported(path);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Must not be called on the main thread */
+    public static String copyToPrivateStorage(Context context, Uri uri) {
+        File directory = new File(context.getFilesDir(), IMAGES_DIRECTORY);
+        if(!directory.exists() && !directory.mkdirs()) {
+            return null;
+        }
+
+        File temporaryFile = new File(directory, "import-" + System.nanoTime() + ".tmp");
+        InputStream inputStream = null;
+        OutputStream outputStream = null;
+        try {
+            inputStream = context.getContentResolver().openInputStream(uri);
+            if(inputStream == null) {
+                return null;
+            }
+            outputStream = new FileOutputStream(temporaryFile);
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                outputStream.write(buffer, 0, read);
+            }
+            outputStream.close();
+            outputStream = null;
+
+            String hash = toHex(digest.digest());
+            File workingCopy = new File(directory, hash + WORKING_COPY_SUFFIX);
+            if(workingCopy.exists()) {
+                /** Used again, so it's not deleted as unused before its note is saved */
+                workingCopy.setLastModified(System.currentTimeMillis());
+            } else if(!writeWorkingCopy(temporaryFile, workingCopy)) {
+                return null;
+            }
+            File original = new File(directory, hash);
+            if(isKeepingOriginals(context) && !original.exists()) {
+                temporaryFile.renameTo(original);
+            }
+            return workingCopy.getPath();
+        } catch (IOException | NoSuchAlgorithmException | SecurityException exception) {
+            Log.w(TAG, "Can't import image " + uri, exception);
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+            closeQuietly(outputStream);
+            temporaryFile.delete();
+        }
+    }
+
+    public static boolean isKeepingOriginals(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .getBoolean(KEY_KEEP_ORIGINALS, false);
+    }
+
+    public static void setKeepingOriginals(Context context, boolean keepOriginals) {
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(KEY_KEEP_ORIGINALS, keepOriginals)
+                .apply();
+    }
+
+    public static boolean isCleanupDue(Context context) {
+        long lastCleanup = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .getLong(KEY_LAST_CLEANUP, 0);
+        return System.currentTimeMillis() - lastCleanup >= CLEANUP_INTERVAL_MILLIS;
+    }
+
+    /**
+     * Deletes the imported images whose working copy is not in usedPaths, their kept originals
+     * and left over temporary files, on the io executor. Files changed in the last
+     * UNUSED_IMAGE_AGE_MILLIS are kept.
+     * */
+    public static void deleteUnusedImages(Context context, Collection<String> usedPaths) {
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putLong(KEY_LAST_CLEANUP, System.currentTimeMillis())
+                .apply();
+        final File directory = new File(context.getFilesDir(), IMAGES_DIRECTORY);
+        final Set<String> usedPathSet = new HashSet<>(usedPaths);
+        AppExecutors.getInstance().io().execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = directory.listFiles();
+                if(files == null) {
+                    return;
+                }
+                long deleteBefore = System.currentTimeMillis() - UNUSED_IMAGE_AGE_MILLIS;
+                int deleted = 0;
+                for (File file : files) {
+                    if(file.lastModified() >= deleteBefore) {
+                        continue;
+                    }
+                    String name = file.getName();
+                    boolean isUsed;
+                    if(name.endsWith(".tmp")) {
+                        isUsed = false;
+                    } else if(name.endsWith(WORKING_COPY_SUFFIX)) {
+                        isUsed = usedPathSet.contains(file.getPath());
+                    } else {
+                        /** A kept original is used as long as its working copy is */
+                        isUsed = usedPathSet.contains(new File(directory, name + WORKING_COPY_SUFFIX).getPath());
+                    }
+                    if(!isUsed && file.delete()) {
+                        deleted++;
+                    }
+                }
+                if(deleted > 0) {
+                    Log.i(TAG, "Deleted " + deleted + " unused image files");
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the scaled down and encoded copy of source to target. If that isn't smaller than
+     * source, source itself is moved to target. Returns false if source is not an image.
+     * */
+    private static boolean writeWorkingCopy(File source, File target) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), options);
+        int longestSide = Math.max(options.outWidth, options.outHeight);
+        if(longestSide <= 0) {
+            return false;
+        }
+        options.inSampleSize = 1;
+        while (longestSide / (options.inSampleSize * 2) >= MAX_IMAGE_DIMENSION) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeFile(source.getPath(), options);
+        if(bitmap == null) {
+            return false;
+        }
+        int decodedLongestSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if(decodedLongestSide > MAX_IMAGE_DIMENSION) {
+            float scale = (float) MAX_IMAGE_DIMENSION / decodedLongestSide;
+            bitmap = Bitmap.createScaledBitmap(
+                    bitmap,
+                    Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)),
+                    true
+            );
+        }
+
+        /** Unique like the import file, the same image may be imported twice at the same time */
+        File encodedFile = new File(target.getParentFile(), "encode-" + System.nanoTime() + ".tmp");
+        OutputStream outputStream = new FileOutputStream(encodedFile);
+        try {
+            bitmap.compress(
+                    bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                    JPEG_QUALITY,
+                    outputStream
+            );
+        } finally {
+            outputStream.close();
+            bitmap.recycle();
+        }
+
+        if(encodedFile.length() > 0 && encodedFile.length() < source.length()) {
+            return encodedFile.renameTo(target);
+        }
+        encodedFile.delete();
+        return source.renameTo(target);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if(closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
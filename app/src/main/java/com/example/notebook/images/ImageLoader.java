@@ -0,0 +1,261 @@
+package com.example.notebook.images;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.notebook.metrics.JankMonitor;
+import com.example.notebook.metrics.Metrics;
+import com.example.notebook.utilities.AppExecutors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Loads note images into ImageViews off the main thread.
+ *
+ * Images are decoded on the compute pool of AppExecutors and downsampled with inSampleSize to about
+ * the size of the view, so a grid of camera photos doesn't decode megapixels for every note. A
+ * load is bound to its ImageView: starting a new load or calling cancel() for that view drops the
+ * previous one, so a recycled view never shows the image of another note.
+ *
+ * Decoded images go through the ThumbnailCache. A bitmap which is in memory is shown right away,
+ * otherwise it is decoded from the disk thumbnail and only if there is none from the original.
+ * Views waiting for the same image at the same width share one load, and an original is only
+ * decoded by one thread at a time, the others wait and read the thumbnail it wrote.
+ *
+ * The cache key of an image needs the last modified time of its file. It is read on the decode
+ * threads and kept per path, so binding a view never touches the disk. Attached images are
+ * content addressed files which never change, so the kept key stays right.
+ *
+ * All public methods must be called from the main thread.
+ * */
+public class ImageLoader {
+
+    private static final String TAG = "ImageLoader";
+
+    private static final String TRACE_DECODE = "ImageLoader.decode";
+    private static final String TRACE_DECODE_ORIGINAL = "ImageLoader.decodeOriginal";
+    private static final int MAX_IMAGE_KEYS = 1000;
+    private static final int ORIGINAL_LOCKS = 16;
+
+    private static ImageLoader imageLoader;
+
+    private final ExecutorService decodeExecutor;
+    private final ThumbnailCache thumbnailCache;
+    /** The widest an image is shown in the app, disk thumbnails are made for this width */
+    private final int maxWidth;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /** The load of each view, and the loads by path and width so views can share them */
+    private final Map<ImageView, LoadRequest> requests = new HashMap<>();
+    private final Map<String, LoadRequest> loads = new HashMap<>();
+    /** Image keys by path, filled on the decode threads */
+    private final LruCache<String, String> imageKeys = new LruCache<>(MAX_IMAGE_KEYS);
+    /** Striped locks, so the same original is never decoded by two threads at once */
+    private final Object[] originalLocks = new Object[ORIGINAL_LOCKS];
+
+    public static synchronized ImageLoader getInstance(Context context) {
+        if(imageLoader == null) {
+            imageLoader = new ImageLoader(context.getApplicationContext());
+        }
+        return imageLoader;
+    }
+
+    private ImageLoader(Context context) {
+        thumbnailCache = new ThumbnailCache(new File(context.getCacheDir(), "thumbnails"));
+        maxWidth = context.getResources().getDisplayMetrics().widthPixels;
+        for (int i = 0; i < ORIGINAL_LOCKS; i++) {
+            originalLocks[i] = new Object();
+        }
+
+        decodeExecutor = AppExecutors.getInstance().compute();
+    }
+
+    /** Decodes the image at path for a view which is about requiredWidth pixels wide */
+    public void load(String path, ImageView imageView, int requiredWidth) {
+        cancel(imageView);
+
+        String imageKey = imageKeys.get(path);
+        if(imageKey != null) {
+            Bitmap bitmap = thumbnailCache.getFromMemory(imageKey, requiredWidth);
+            if(bitmap != null) {
+                imageView.setImageBitmap(bitmap);
+                return;
+            }
+        }
+        imageView.setImageDrawable(null);
+
+        String loadKey = path + "|" + requiredWidth;
+        LoadRequest request = loads.get(loadKey);
+        if(request == null) {
+            request = new LoadRequest(loadKey, path, requiredWidth, imageKey != null);
+            loads.put(loadKey, request);
+            request.future = decodeExecutor.submit(request);
+        }
+        request.imageViews.add(imageView);
+        requests.put(imageView, request);
+    }
+
+    /** Drops the load for this view, the load itself is cancelled when no other view waits for it */
+    public void cancel(ImageView imageView) {
+        LoadRequest request = requests.remove(imageView);
+        if(request == null) {
+            return;
+        }
+        request.imageViews.remove(imageView);
+        if(request.imageViews.isEmpty()) {
+            request.cancelled = true;
+            if(request.future != null) {
+                request.future.cancel(false);
+            }
+            loads.remove(request.loadKey);
+        }
+    }
+
+    /** Disk thumbnail first, the original image only if there is no thumbnail yet */
+    private Bitmap decode(String path, String imageKey, int requiredWidth) {
+        long start = Metrics.begin(TRACE_DECODE);
+        try {
+            Bitmap bitmap = thumbnailCache.getFromDisk(imageKey, requiredWidth);
+            if(bitmap == null) {
+                synchronized (originalLocks[(imageKey.hashCode() & 0x7fffffff) % ORIGINAL_LOCKS]) {
+                    /** Another thread may have written the thumbnail while this one waited */
+                    if(thumbnailCache.isOnDisk(imageKey)) {
+                        bitmap = thumbnailCache.getFromDisk(imageKey, requiredWidth);
+                    }
+                    if(bitmap == null) {
+                        Bitmap thumbnail = decodeOriginal(path);
+                        if(thumbnail == null) {
+                            return null;
+                        }
+                        thumbnailCache.putOnDisk(imageKey, thumbnail);
+                        bitmap = scaleToWidth(thumbnail, requiredWidth);
+                    }
+                }
+            }
+            thumbnailCache.putInMemory(imageKey, requiredWidth, bitmap);
+            return bitmap;
+        } finally {
+            Metrics.end(TRACE_DECODE, start);
+        }
+    }
+
+    private Bitmap decodeOriginal(String path) {
+        long start = Metrics.begin(TRACE_DECODE_ORIGINAL);
+        try {
+            return decodeSampledBitmap(path, maxWidth);
+        } finally {
+            Metrics.end(TRACE_DECODE_ORIGINAL, start);
+        }
+    }
+
+    private static Bitmap scaleToWidth(Bitmap bitmap, int width) {
+        if(width <= 0 || bitmap.getWidth() <= width) {
+            return bitmap;
+        }
+        int height = Math.max(1, Math.round((float) bitmap.getHeight() * width / bitmap.getWidth()));
+        return Bitmap.createScaledBitmap(bitmap, width, height, true);
+    }
+
+    /**
+     * Decodes the image at path so that its width is not less than requiredWidth, using the
+     * largest power of two sample size which allows that. Returns null if it can't be decoded.
+     * */
+    public static Bitmap decodeSampledBitmap(String path, int requiredWidth) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if(options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = calculateInSampleSize(options.outWidth, requiredWidth);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    static int calculateInSampleSize(int width, int requiredWidth) {
+        int inSampleSize = 1;
+        if(requiredWidth > 0) {
+            while (width / (inSampleSize * 2) >= requiredWidth) {
+                inSampleSize *= 2;
+            }
+        }
+        return inSampleSize;
+    }
+
+    /** Only called on the decode threads */
+    private String imageKeyOf(String path) {
+        String imageKey = imageKeys.get(path);
+        if(imageKey == null) {
+            imageKey = ThumbnailCache.imageKey(path);
+            imageKeys.put(path, imageKey);
+        }
+        return imageKey;
+    }
+
+    private class LoadRequest implements Runnable {
+
+        final String loadKey;
+        final String path;
+        final int requiredWidth;
+        /** The memory cache was checked already, with a known image key */
+        final boolean isMemoryChecked;
+        /** The views waiting for this load, only touched on the main thread */
+        final List<ImageView> imageViews = new ArrayList<>(1);
+        volatile boolean cancelled;
+        Future<?> future;
+
+        LoadRequest(String loadKey, String path, int requiredWidth, boolean isMemoryChecked) {
+            this.loadKey = loadKey;
+            this.path = path;
+            this.requiredWidth = requiredWidth;
+            this.isMemoryChecked = isMemoryChecked;
+        }
+
+        @Override
+        public void run() {
+            if(cancelled) {
+                return;
+            }
+            Bitmap bitmap = null;
+            try {
+                String imageKey = imageKeyOf(path);
+                bitmap = isMemoryChecked ? null : thumbnailCache.getFromMemory(imageKey, requiredWidth);
+                if(bitmap == null) {
+                    bitmap = decode(path, imageKey, requiredWidth);
+                }
+            } catch (Throwable throwable) {
+                /** Like OutOfMemoryError for a huge image, the load still ends and the next one
+                 *  for this path starts over instead of waiting for this one forever */
+                Log.w(TAG, "Can't load image " + path, throwable);
+            }
+            final Bitmap decodedBitmap = bitmap;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(cancelled || loads.get(loadKey) != LoadRequest.this) {
+                        return;
+                    }
+                    loads.remove(loadKey);
+                    long start = System.nanoTime();
+                    for (ImageView imageView : imageViews) {
+                        requests.remove(imageView);
+                        imageView.setImageBitmap(decodedBitmap);
+                    }
+                    imageViews.clear();
+                    JankMonitor.recordWork(JankMonitor.WORK_DECODE, System.nanoTime() - start);
+                }
+            });
+        }
+    }
+}
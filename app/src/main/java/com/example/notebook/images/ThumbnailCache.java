@@ -0,0 +1,180 @@
+package com.example.notebook.images;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.notebook.metrics.Metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Two level cache of decoded note images.
+ *
+ * The memory level is an LruCache of bitmaps sized from the heap of the app, keyed by image path,
+ * last modified time of the image and the width the bitmap was decoded for. The disk level keeps
+ * one thumbnail per image path and last modified time in the cache directory of the app. It is
+ * decoded once from the original at the largest width the app shows, every smaller size is
+ * made from it, so the original image is decoded only once. Changing the image file changes its
+ * last modified time and so its keys.
+ *
+ * The memory level can be used from any thread, the disk level must not be used on the main thread.
+ * */
+public class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+    private static final long MAX_DISK_BYTES = 50L * 1024 * 1024;
+    private static final int JPEG_QUALITY = 85;
+    private static final String CACHE_MEMORY = "thumbnails.memory";
+    private static final String CACHE_DISK = "thumbnails.disk";
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final File directory;
+    private long diskBytes = -1;
+
+    public ThumbnailCache(File directory) {
+        this.directory = directory;
+
+        /** An eighth of the heap of the app, counted in kilobytes */
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        memoryCache = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /** Key of the image file at path in its current version */
+    public static String imageKey(String path) {
+        return path + "|" + new File(path).lastModified();
+    }
+
+    public Bitmap getFromMemory(String imageKey, int width) {
+        Bitmap bitmap = memoryCache.get(memoryKey(imageKey, width));
+        Metrics.countCache(CACHE_MEMORY, bitmap != null);
+        return bitmap;
+    }
+
+    public void putInMemory(String imageKey, int width, Bitmap bitmap) {
+        memoryCache.put(memoryKey(imageKey, width), bitmap);
+    }
+
+    public boolean isOnDisk(String imageKey) {
+        return diskFile(imageKey).exists();
+    }
+
+    /** Decodes the disk thumbnail of the image for the given width, null if there is none */
+    public Bitmap getFromDisk(String imageKey, int width) {
+        File file = diskFile(imageKey);
+        if(!file.exists()) {
+            Metrics.countCache(CACHE_DISK, false);
+            return null;
+        }
+        Bitmap bitmap = ImageLoader.decodeSampledBitmap(file.getPath(), width);
+        if(bitmap == null) {
+            Metrics.countCache(CACHE_DISK, false);
+            return null;
+        }
+        Metrics.countCache(CACHE_DISK, true);
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    /** Stores the thumbnail decoded from the original image, old thumbnails are removed when the cache is full */
+    public synchronized void putOnDisk(String imageKey, Bitmap bitmap) {
+        if(!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        File file = diskFile(imageKey);
+        File temporaryFile = new File(directory, file.getName() + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(temporaryFile);
+            bitmap.compress(
+                    bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                    JPEG_QUALITY,
+                    outputStream
+            );
+            outputStream.close();
+            outputStream = null;
+            if(temporaryFile.renameTo(file)) {
+                if(diskBytes >= 0) {
+                    diskBytes += file.length();
+                }
+                trimDisk();
+            }
+        } catch (IOException exception) {
+            Log.w(TAG, "Can't write thumbnail", exception);
+        } finally {
+            if(outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            temporaryFile.delete();
+        }
+    }
+
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return;
+        }
+        if(diskBytes < 0) {
+            diskBytes = 0;
+            for (File file : files) {
+                diskBytes += file.length();
+            }
+        }
+        if(diskBytes <= MAX_DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if(diskBytes <= MAX_DISK_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if(file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private static String memoryKey(String imageKey, int width) {
+        return imageKey + "|" + width;
+    }
+
+    private File diskFile(String imageKey) {
+        return new File(directory, hash(imageKey));
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException exception) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.example.notebook.listeners;
 
-import com.example.notebook.entities.Note;
+import com.example.notebook.entities.NoteSummary;
 
 public interface NoteListener {
-    void onNoteClicked(Note note, int position);
+    void onNoteClicked(NoteSummary note, int position);
+
+    /** Starts or changes the selection of notes */
+    void onNoteLongClicked(NoteSummary note, int position);
 }
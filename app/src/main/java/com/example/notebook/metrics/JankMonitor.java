@@ -0,0 +1,339 @@
+package com.example.notebook.metrics;
+
+import android.app.Activity;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.notebook.utilities.AppExecutors;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records slow and frozen frames of a screen while its RecyclerView is scrolled or its content is
+ * updated, like by a search.
+ *
+ * Frames are timed by the Choreographer between two vsync callbacks, which works on every API
+ * level. The callback is only posted while the list is scrolled and for UPDATE_WINDOW_NANOS after
+ * an update, so an idle screen doesn't wake up for every frame. A frame is slow when it missed a
+ * vsync and frozen when it took FROZEN_FRAME_NANOS or more.
+ *
+ * The main thread work of every frame is added up by kind: binding views, setting decoded images,
+ * dispatching list diffs and the layout around them. The kind with the most time is the cause a
+ * slow frame is attributed to, "other" when none of them ran, like for a garbage collection.
+ *
+ * A session lasts from start() to stop(). Its summary and its slow frames are written as CSV to
+ * files/jank/ when it ends, the last MAX_EXPORTED_SESSIONS are kept:
+ * adb shell run-as com.example.notebook ls files/jank
+ *
+ * Must be used from the main thread.
+ * */
+public class JankMonitor {
+
+    private static final String TAG = "JankMonitor";
+
+    public static final int WORK_BIND = 0;
+    public static final int WORK_DECODE = 1;
+    public static final int WORK_DIFF = 2;
+    public static final int WORK_LAYOUT = 3;
+    private static final int WORK_KINDS = 4;
+    private static final int CAUSE_OTHER = WORK_KINDS;
+    private static final String[] CAUSE_NAMES = {"bind", "decode", "diff", "layout", "other"};
+
+    private static final long FROZEN_FRAME_NANOS = 700L * 1000 * 1000;
+    private static final long UPDATE_WINDOW_NANOS = 1000L * 1000 * 1000;
+    private static final int MAX_RECORDED_FRAMES = 500;
+    private static final int MAX_EXPORTED_SESSIONS = 10;
+    private static final String EXPORT_DIRECTORY = "jank";
+
+    /** Main thread work since the last frame callback, kept even while no monitor is running */
+    private static final long[] workNanos = new long[WORK_KINDS];
+    private static final int[] workCounts = new int[WORK_KINDS];
+
+    /** A slow frame and what the main thread did in it */
+    private static class SlowFrame {
+
+        final long offsetNanos;
+        final long durationNanos;
+        final boolean isScrolling;
+        final int cause;
+        final long[] workNanos;
+        final int[] workCounts;
+
+        SlowFrame(long offsetNanos, long durationNanos, boolean isScrolling, int cause, long[] workNanos, int[] workCounts) {
+            this.offsetNanos = offsetNanos;
+            this.durationNanos = durationNanos;
+            this.isScrolling = isScrolling;
+            this.cause = cause;
+            this.workNanos = workNanos;
+            this.workCounts = workCounts;
+        }
+    }
+
+    private final String screenName;
+    private final File exportDirectory;
+    private final long frameIntervalNanos;
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            isFrameCallbackPosted = false;
+            onFrame(frameTimeNanos);
+        }
+    };
+
+    private boolean isStarted = false;
+    private boolean isScrolling = false;
+    private long updateUntilNanos;
+    private boolean isFrameCallbackPosted = false;
+    private long lastFrameTimeNanos;
+    private File lastExport;
+
+    /** The current session */
+    private long sessionStartNanos;
+    private long sessionStartMillis;
+    private long frameCount;
+    private long slowFrameCount;
+    private long frozenFrameCount;
+    private long[] slowFramesByCause = new long[CAUSE_NAMES.length];
+    private LatencyHistogram frameDurations = new LatencyHistogram();
+    private List<SlowFrame> slowFrames = new ArrayList<>();
+
+    @SuppressWarnings("deprecation")
+    public JankMonitor(Activity activity, String screenName) {
+        this.screenName = screenName;
+        exportDirectory = new File(activity.getFilesDir(), EXPORT_DIRECTORY);
+        float refreshRate = activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+        frameIntervalNanos = (long) (1e9 / (refreshRate >= 1 ? refreshRate : 60));
+    }
+
+    /** Adds main thread work of the given kind to the current frame */
+    public static void recordWork(int kind, long nanos) {
+        workNanos[kind] += nanos;
+        workCounts[kind]++;
+    }
+
+    /**
+     * Starts timing a layout pass, returns the token for endLayout(). Layout passes bind views,
+     * only the time which is not recorded as other work meanwhile is counted as layout.
+     * */
+    public static long beginLayout() {
+        return System.nanoTime() - totalWorkNanos();
+    }
+
+    public static void endLayout(long token) {
+        recordWork(WORK_LAYOUT, System.nanoTime() - totalWorkNanos() - token);
+    }
+
+    /** Frames are timed while the list is scrolled */
+    public void watch(RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+                isScrolling = newState != RecyclerView.SCROLL_STATE_IDLE;
+                postFrameCallback();
+            }
+        });
+    }
+
+    /** The content is about to change, frames are timed for a while */
+    public void onUpdate() {
+        updateUntilNanos = System.nanoTime() + UPDATE_WINDOW_NANOS;
+        postFrameCallback();
+    }
+
+    /** Starts a new session, like when the screen is resumed */
+    public void start() {
+        isStarted = true;
+        sessionStartNanos = System.nanoTime();
+        sessionStartMillis = System.currentTimeMillis();
+        frameCount = 0;
+        slowFrameCount = 0;
+        frozenFrameCount = 0;
+        slowFramesByCause = new long[CAUSE_NAMES.length];
+        frameDurations = new LatencyHistogram();
+        slowFrames = new ArrayList<>();
+        postFrameCallback();
+    }
+
+    /** Ends the session and exports it in background, if any frame was timed */
+    public void stop() {
+        isStarted = false;
+        isScrolling = false;
+        updateUntilNanos = 0;
+        lastFrameTimeNanos = 0;
+        if(isFrameCallbackPosted) {
+            choreographer.removeFrameCallback(frameCallback);
+            isFrameCallbackPosted = false;
+        }
+        if(frameCount > 0) {
+            export();
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Frames of " + screenName + " in this session");
+        writeSummary(prefix + "  ", writer);
+        if(lastExport != null) {
+            writer.println(prefix + "  last export: " + lastExport.getPath());
+        }
+    }
+
+    private boolean isActive(long nowNanos) {
+        return isStarted && (isScrolling || nowNanos < updateUntilNanos);
+    }
+
+    private void postFrameCallback() {
+        if(!isFrameCallbackPosted && isActive(System.nanoTime())) {
+            isFrameCallbackPosted = true;
+            choreographer.postFrameCallback(frameCallback);
+        }
+    }
+
+    private void onFrame(long frameTimeNanos) {
+        if(lastFrameTimeNanos != 0) {
+            recordFrame(frameTimeNanos - lastFrameTimeNanos);
+        }
+        /** Work done before the first callback belongs to a frame which wasn't timed */
+        Arrays.fill(workNanos, 0);
+        Arrays.fill(workCounts, 0);
+        if(isActive(frameTimeNanos)) {
+            lastFrameTimeNanos = frameTimeNanos;
+            postFrameCallback();
+        } else {
+            lastFrameTimeNanos = 0;
+        }
+    }
+
+    private void recordFrame(long durationNanos) {
+        frameCount++;
+        frameDurations.record(durationNanos, 0);
+        if(durationNanos < frameIntervalNanos * 3 / 2) {
+            return;
+        }
+        slowFrameCount++;
+        if(durationNanos >= FROZEN_FRAME_NANOS) {
+            frozenFrameCount++;
+        }
+
+        int cause = CAUSE_OTHER;
+        for (int kind = 0; kind < WORK_KINDS; kind++) {
+            if(workNanos[kind] > 0 && (cause == CAUSE_OTHER || workNanos[kind] > workNanos[cause])) {
+                cause = kind;
+            }
+        }
+        slowFramesByCause[cause]++;
+        if(slowFrames.size() < MAX_RECORDED_FRAMES) {
+            slowFrames.add(new SlowFrame(
+                    lastFrameTimeNanos - sessionStartNanos,
+                    durationNanos,
+                    isScrolling,
+                    cause,
+                    workNanos.clone(),
+                    workCounts.clone()
+            ));
+        }
+    }
+
+    private void writeSummary(String prefix, PrintWriter writer) {
+        writer.println(prefix + String.format(Locale.US,
+                "frames: %d, slow: %d, frozen: %d, p50: %.1f ms, p99: %.1f ms, max: %.1f ms",
+                frameCount, slowFrameCount, frozenFrameCount,
+                frameDurations.getPercentileNanos(50) / 1e6,
+                frameDurations.getPercentileNanos(99) / 1e6,
+                frameDurations.getMaxNanos() / 1e6));
+        StringBuilder causes = new StringBuilder(prefix).append("slow frames by cause:");
+        for (int cause = 0; cause < CAUSE_NAMES.length; cause++) {
+            causes.append(' ').append(CAUSE_NAMES[cause]).append(": ").append(slowFramesByCause[cause]);
+        }
+        writer.println(causes);
+    }
+
+    /** The CSV is made here, it's only a few hundred lines, and written on the io executor */
+    private void export() {
+        StringWriter content = new StringWriter();
+        PrintWriter writer = new PrintWriter(content);
+        writer.println("# " + screenName + ", session of "
+                + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date(sessionStartMillis))
+                + ", " + (System.nanoTime() - sessionStartNanos) / 1000000 + " ms");
+        writeSummary("# ", writer);
+        writer.println("offset_ms,duration_ms,frozen,context,cause,"
+                + "bind_ms,binds,decode_ms,decodes,diff_ms,diffs,layout_ms,layouts");
+        for (SlowFrame frame : slowFrames) {
+            writer.print(String.format(Locale.US, "%d,%.2f,%b,%s,%s",
+                    frame.offsetNanos / 1000000,
+                    frame.durationNanos / 1e6,
+                    frame.durationNanos >= FROZEN_FRAME_NANOS,
+                    frame.isScrolling ? "scroll" : "update",
+                    CAUSE_NAMES[frame.cause]));
+            for (int kind = 0; kind < WORK_KINDS; kind++) {
+                writer.print(String.format(Locale.US, ",%.2f,%d", frame.workNanos[kind] / 1e6, frame.workCounts[kind]));
+            }
+            writer.println();
+        }
+        writer.flush();
+
+        final String csv = content.toString();
+        final File file = new File(exportDirectory, screenName + "-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date(sessionStartMillis)) + ".csv");
+        lastExport = file;
+        AppExecutors.getInstance().io().execute(new Runnable() {
+            @Override
+            public void run() {
+                writeExport(file, csv);
+            }
+        });
+    }
+
+    private void writeExport(File file, String csv) {
+        if(!exportDirectory.exists() && !exportDirectory.mkdirs()) {
+            return;
+        }
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write(csv);
+        } catch (IOException exception) {
+            Log.w(TAG, "Can't export the frames", exception);
+        } finally {
+            if(writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        /** The names start with the screen and the time, so the oldest sessions sort first */
+        String[] names = exportDirectory.list();
+        if(names != null && names.length > MAX_EXPORTED_SESSIONS) {
+            Arrays.sort(names);
+            for (int i = 0; i < names.length - MAX_EXPORTED_SESSIONS; i++) {
+                new File(exportDirectory, names[i]).delete();
+            }
+        }
+    }
+
+    private static long totalWorkNanos() {
+        long total = 0;
+        for (long nanos : workNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+}
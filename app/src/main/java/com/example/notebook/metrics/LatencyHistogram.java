@@ -0,0 +1,77 @@
+package com.example.notebook.metrics;
+
+/**
+ * Counts durations in buckets which grow by a quarter power of two, from 1 microsecond to about a
+ * minute. Recording is a few arithmetic steps and no allocation, and the memory used doesn't grow
+ * with the number of recorded durations. Percentiles are the upper bound of the bucket they fall
+ * in, so they are at most about 19% too high.
+ *
+ * Can be used from any thread.
+ * */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKET_COUNT = 26 * SUB_BUCKETS;
+    private static final long MIN_NANOS = 1000;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private long allocations;
+
+    public synchronized void record(long nanos, long allocationCount) {
+        buckets[bucketOf(nanos)]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        allocations += allocationCount;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public synchronized long getAverageNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /** Average number of objects allocated per recorded duration, 0 when allocations aren't counted */
+    public synchronized long getAverageAllocations() {
+        return count == 0 ? 0 : allocations / count;
+    }
+
+    /** The duration percentile percent of all recorded durations were not longer than, 0 when nothing was recorded */
+    public synchronized long getPercentileNanos(double percentile) {
+        if(count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += buckets[bucket];
+            if(seen >= rank) {
+                return Math.min(upperBoundOf(bucket), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    static int bucketOf(long nanos) {
+        if(nanos <= MIN_NANOS) {
+            return 0;
+        }
+        /** The bucket is the base 2 logarithm of the duration in microseconds, in quarter steps */
+        double exponent = Math.log((double) nanos / MIN_NANOS) / Math.log(2);
+        int bucket = (int) Math.ceil(exponent * SUB_BUCKETS);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    static long upperBoundOf(int bucket) {
+        return (long) (MIN_NANOS * Math.pow(2, (double) bucket / SUB_BUCKETS));
+    }
+}
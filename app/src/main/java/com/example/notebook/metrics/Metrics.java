@@ -0,0 +1,221 @@
+package com.example.notebook.metrics;
+
+import android.os.Debug;
+import android.os.SystemClock;
+
+import androidx.core.os.TraceCompat;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lightweight instrumentation of the paths the app spends its time on.
+ *
+ * A section is measured between begin() and end() on the same thread. It shows up as a trace
+ * section in systrace and Perfetto, and its duration is recorded in a LatencyHistogram of the same
+ * name. Counters count events, a pair of counters named "x.hit" and "x.miss" is shown as the hit
+ * rate of cache x. While allocation counting is on, the objects allocated by the thread in a
+ * section are counted too. It slows the runtime down and skews the latencies, so it's off unless
+ * it's turned on for a measured run.
+ *
+ * Everything is kept in memory since the start of the process and printed by dump(), which
+ * MainActivity calls for:
+ * adb shell dumpsys activity com.example.notebook/.activities.MainActivity [--reset-metrics]
+ * [--count-allocations | --stop-counting-allocations]
+ *
+ * Can be used from any thread.
+ * */
+public class Metrics {
+
+    private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private static final String HIT_SUFFIX = ".hit";
+    private static final String MISS_SUFFIX = ".miss";
+
+    private static volatile boolean isCountingAllocations = false;
+
+    /** Allocation counts at the start of the open sections of a thread, only used while counting allocations */
+    private static class OpenSections {
+        final long[] allocations = new long[16];
+        int depth;
+    }
+
+    private static final ThreadLocal<OpenSections> openSections = new ThreadLocal<OpenSections>() {
+        @Override
+        protected OpenSections initialValue() {
+            return new OpenSections();
+        }
+    };
+
+    private static volatile long startedAt = SystemClock.elapsedRealtime();
+
+    private Metrics() {
+    }
+
+    /** Starts the section, returns its start time which must be given to end() */
+    public static long begin(String name) {
+        TraceCompat.beginSection(name);
+        if(isCountingAllocations) {
+            OpenSections sections = openSections.get();
+            if(sections.depth < sections.allocations.length) {
+                sections.allocations[sections.depth] = threadAllocations();
+            }
+            sections.depth++;
+        }
+        return System.nanoTime();
+    }
+
+    /** Ends the section which was started last on this thread and records its duration */
+    public static void end(String name, long start) {
+        long nanos = System.nanoTime() - start;
+        long allocationCount = 0;
+        if(isCountingAllocations) {
+            OpenSections sections = openSections.get();
+            if(sections.depth > 0) {
+                sections.depth--;
+                if(sections.depth < sections.allocations.length) {
+                    allocationCount = threadAllocations() - sections.allocations[sections.depth];
+                }
+            }
+        }
+        TraceCompat.endSection();
+        histogram(name).record(nanos, allocationCount);
+    }
+
+    /** Records a duration which wasn't measured as a section, like one which spans threads */
+    public static void record(String name, long nanos) {
+        histogram(name).record(nanos, 0);
+    }
+
+    public static void count(String name) {
+        count(name, 1);
+    }
+
+    public static void count(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if(counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(name, newCounter);
+            if(counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /** Counts hits or misses of the named cache */
+    public static void countCache(String cache, boolean isHit) {
+        count(cache + (isHit ? HIT_SUFFIX : MISS_SUFFIX));
+    }
+
+    /**
+     * Turns counting of allocations on or off. The counts of the runtime are reset when it's
+     * turned on, so they start with the measured runs.
+     * */
+    @SuppressWarnings("deprecation")
+    public static void setCountingAllocations(boolean countingAllocations) {
+        if(countingAllocations == isCountingAllocations) {
+            return;
+        }
+        if(countingAllocations) {
+            Debug.resetAllCounts();
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+        isCountingAllocations = countingAllocations;
+    }
+
+    /** Forgets everything measured so far, like before a measured run */
+    @SuppressWarnings("deprecation")
+    public static void reset() {
+        histograms.clear();
+        counters.clear();
+        if(isCountingAllocations) {
+            Debug.resetAllCounts();
+        }
+        startedAt = SystemClock.elapsedRealtime();
+    }
+
+    @SuppressWarnings("deprecation")
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Metrics of the last "
+                + (SystemClock.elapsedRealtime() - startedAt) / 1000 + " s");
+
+        writer.println(prefix + String.format(Locale.US, "  %-32s %8s %9s %9s %9s %9s",
+                "Latency", "count", "p50 ms", "p99 ms", "max ms", isCountingAllocations ? "allocs" : ""));
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            writer.println(prefix + String.format(Locale.US, "  %-32s %8d %9.3f %9.3f %9.3f %9s",
+                    entry.getKey(),
+                    histogram.getCount(),
+                    histogram.getPercentileNanos(50) / 1e6,
+                    histogram.getPercentileNanos(99) / 1e6,
+                    histogram.getMaxNanos() / 1e6,
+                    isCountingAllocations ? String.valueOf(histogram.getAverageAllocations()) : ""));
+        }
+
+        Map<String, AtomicLong> sortedCounters = new TreeMap<>(counters);
+        writer.println(prefix + "  Counters");
+        for (Map.Entry<String, AtomicLong> entry : sortedCounters.entrySet()) {
+            writer.println(prefix + String.format(Locale.US, "  %-32s %8d", entry.getKey(), entry.getValue().get()));
+        }
+
+        writer.println(prefix + "  Cache hit rates");
+        Set<String> caches = new TreeSet<>();
+        for (String name : sortedCounters.keySet()) {
+            if(name.endsWith(HIT_SUFFIX)) {
+                caches.add(name.substring(0, name.length() - HIT_SUFFIX.length()));
+            } else if(name.endsWith(MISS_SUFFIX)) {
+                caches.add(name.substring(0, name.length() - MISS_SUFFIX.length()));
+            }
+        }
+        for (String cache : caches) {
+            long hitCount = valueOf(sortedCounters.get(cache + HIT_SUFFIX));
+            long total = hitCount + valueOf(sortedCounters.get(cache + MISS_SUFFIX));
+            writer.println(prefix + String.format(Locale.US, "  %-32s %7.1f%% of %d",
+                    cache, total == 0 ? 0 : 100.0 * hitCount / total, total));
+        }
+
+        writer.println(prefix + "  Memory");
+        Runtime runtime = Runtime.getRuntime();
+        writer.println(prefix + String.format(Locale.US, "  %-32s %8d KB of %d KB",
+                "java heap used", (runtime.totalMemory() - runtime.freeMemory()) / 1024, runtime.maxMemory() / 1024));
+        if(isCountingAllocations) {
+            writer.println(prefix + String.format(Locale.US, "  %-32s %8d objects, %d KB",
+                    "allocated", Debug.getGlobalAllocCount(), Debug.getGlobalAllocSize() / 1024));
+            writer.println(prefix + String.format(Locale.US, "  %-32s %8d",
+                    "garbage collections", Debug.getGlobalGcInvocationCount()));
+        } else {
+            writer.println(prefix + "  allocations are not counted, turn it on with --count-allocations");
+        }
+    }
+
+    private static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if(histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if(histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    private static long valueOf(AtomicLong counter) {
+        return counter == null ? 0 : counter.get();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long threadAllocations() {
+        return Debug.getThreadAllocCount();
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.notebook.metrics;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.recyclerview.widget.StaggeredGridLayoutManager;
+
+/**
+ * A StaggeredGridLayoutManager which tells JankMonitor how long its layout passes and scrolls
+ * take on the main thread. The views bound meanwhile are recorded as bind work, not as layout.
+ * */
+public class TimedStaggeredGridLayoutManager extends StaggeredGridLayoutManager {
+
+    public TimedStaggeredGridLayoutManager(int spanCount, int orientation) {
+        super(spanCount, orientation);
+    }
+
+    @Override
+    public void onLayoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state) {
+        long token = JankMonitor.beginLayout();
+        try {
+            super.onLayoutChildren(recycler, state);
+        } finally {
+            JankMonitor.endLayout(token);
+        }
+    }
+
+    @Override
+    public int scrollVerticallyBy(int dy, RecyclerView.Recycler recycler, RecyclerView.State state) {
+        long token = JankMonitor.beginLayout();
+        try {
+            return super.scrollVerticallyBy(dy, recycler, state);
+        } finally {
+            JankMonitor.endLayout(token);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.notebook.repository;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.notebook.entities.Note;
+
+/**
+ * Saves the note of the editor in background while the user is still editing it.
+ *
+ * Edits are coalesced: the first edit schedules one write after AUTOSAVE_INTERVAL_MILLIS and
+ * every edit until then is part of that write, so there is at most one write per interval no
+ * matter how fast the user types. A note is only written when its content differs from what was
+ * written last. Only one write is on its way at a time; a write which is due meanwhile waits for
+ * it, so a new note is inserted once and updated by its id after that.
+ *
+ * When the note was changed somewhere else meanwhile nothing is overwritten. Autosaving stops
+ * and the editor is told, only an explicit save() writes the note then, over the other change.
+ *
+ * It's kept by NoteEditorViewModel, so a recreated editor goes on with the note as it was
+ * written, even while a write of the old editor is still on its way. Results are delivered
+ * without a LifecycleOwner for that reason, the editor is detached when it's destroyed.
+ *
+ * Must be used from the main thread.
+ * */
+public class NoteAutosaver {
+
+    private static final long AUTOSAVE_INTERVAL_MILLIS = 2000;
+
+    public interface Editor {
+        /** The note as it is in the editor now, without id, null if it can't be saved yet */
+        Note getDraft();
+
+        /** The note was changed or deleted somewhere else, the draft was not written */
+        void onSaveConflict();
+    }
+
+    private final NoteRepository noteRepository;
+    private Editor editor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable autosave = new Runnable() {
+        @Override
+        public void run() {
+            isScheduled = false;
+            flush();
+        }
+    };
+
+    /** The note as it was written last, null if nothing was written yet */
+    private Note savedNote;
+    private boolean isScheduled = false;
+    private boolean isWriting = false;
+    /** The draft of a flush while a write was on its way, written after it */
+    private Note pendingDraft;
+    private Runnable afterWrite;
+    private NoteRepository.Callback<Long> pendingSaveCallback;
+    private boolean isStopped = false;
+    private boolean isConflicted = false;
+
+    public NoteAutosaver(NoteRepository noteRepository) {
+        this.noteRepository = noteRepository;
+    }
+
+    /** Attaches the editor, or detaches it with null when it's destroyed */
+    public void setEditor(Editor editor) {
+        this.editor = editor;
+        if(editor == null) {
+            afterWrite = null;
+        }
+    }
+
+    /**
+     * Tells which note is edited, as it is in database. Its content is not written again. An
+     * older version of the note than the one written last is ignored, like a cached copy which
+     * was read while the write was on its way.
+     * */
+    public void setSavedNote(Note note) {
+        if(savedNote != null && note != null && savedNote.getId() == note.getId()
+                && savedNote.getVersion() > note.getVersion()) {
+            return;
+        }
+        savedNote = note;
+    }
+
+    /** The note as it was written last or loaded, null if there is none */
+    public Note getSavedNote() {
+        return savedNote;
+    }
+
+    /** Whether a note was loaded or written already, or a write is on its way */
+    public boolean hasNote() {
+        return savedNote != null || isWriting;
+    }
+
+    /** Runs the action once no write is on its way anymore, at once if there is none */
+    public void runAfterWrite(Runnable action) {
+        if(isWriting) {
+            afterWrite = action;
+        } else {
+            action.run();
+        }
+    }
+
+    /** Called after every edit, schedules a write unless one is scheduled already */
+    public void onEdited() {
+        if(isStopped || isConflicted || isScheduled) {
+            return;
+        }
+        isScheduled = true;
+        mainHandler.postDelayed(autosave, AUTOSAVE_INTERVAL_MILLIS);
+    }
+
+    /** Writes the note now if it has changed, like when the editor goes to background */
+    public void flush() {
+        cancelScheduled();
+        if(isStopped || isConflicted || editor == null) {
+            return;
+        }
+        Note draft = editor.getDraft();
+        if(isWriting) {
+            /** Taken now, the editor may be gone when the write on its way is done */
+            if(draft != null) {
+                pendingDraft = draft;
+            }
+            return;
+        }
+        writeIfChanged(draft);
+    }
+
+    private void writeIfChanged(Note draft) {
+        if(draft == null || hasSameContent(draft, savedNote)) {
+            return;
+        }
+        write(draft, null);
+    }
+
+    /**
+     * Writes the note now, even if it hasn't changed, and stops autosaving. The callback gets
+     * the id of the note. Does nothing if the note can't be saved.
+     * */
+    public void save(NoteRepository.Callback<Long> callback) {
+        cancelScheduled();
+        if(isStopped) {
+            return;
+        }
+        if(isWriting) {
+            pendingSaveCallback = callback;
+            return;
+        }
+        Note draft = editor == null ? null : editor.getDraft();
+        if(draft == null) {
+            return;
+        }
+        isStopped = true;
+        write(draft, callback);
+    }
+
+    /** No more writes, like when the note is deleted */
+    public void stop() {
+        cancelScheduled();
+        isStopped = true;
+        pendingDraft = null;
+        pendingSaveCallback = null;
+    }
+
+    private void write(Note draft, final NoteRepository.Callback<Long> callback) {
+        isWriting = true;
+        noteRepository.saveNote(draft, savedNote, null, new NoteRepository.SaveCallback() {
+            @Override
+            public void onSaved(Note note) {
+                isWriting = false;
+                savedNote = note;
+                if(callback != null) {
+                    callback.onResult((long) note.getId());
+                    return;
+                }
+                if(pendingSaveCallback != null) {
+                    NoteRepository.Callback<Long> saveCallback = pendingSaveCallback;
+                    pendingSaveCallback = null;
+                    save(saveCallback);
+                } else if(pendingDraft != null) {
+                    Note draft = pendingDraft;
+                    pendingDraft = null;
+                    writeIfChanged(draft);
+                }
+                runAfterWriteIfDone();
+            }
+
+            @Override
+            public void onConflict(Note current) {
+                isWriting = false;
+                isConflicted = true;
+                isStopped = false;
+                pendingDraft = null;
+                pendingSaveCallback = null;
+                /** The next save() is based on the note as it is now, so it can overwrite it */
+                savedNote = current;
+                if(editor != null) {
+                    editor.onSaveConflict();
+                }
+                runAfterWriteIfDone();
+            }
+        });
+    }
+
+    private void runAfterWriteIfDone() {
+        if(!isWriting && afterWrite != null) {
+            Runnable action = afterWrite;
+            afterWrite = null;
+            action.run();
+        }
+    }
+
+    private void cancelScheduled() {
+        if(isScheduled) {
+            mainHandler.removeCallbacks(autosave);
+            isScheduled = false;
+        }
+    }
+
+    private static boolean hasSameContent(Note note, Note other) {
+        return other != null
+                && equals(note.getTitle(), other.getTitle())
+                && equals(note.getSubTitle(), other.getSubTitle())
+                && equals(note.getNoteText(), other.getNoteText())
+                && equals(note.getColor(), other.getColor())
+                && equals(note.getImagePath(), other.getImagePath())
+                && equals(note.getWebLink(), other.getWebLink());
+    }
+
+    /** The editor has "" where an older note has null, like for a note without image */
+    private static boolean equals(String first, String second) {
+        return (first == null ? "" : first).equals(second == null ? "" : second);
+    }
+}
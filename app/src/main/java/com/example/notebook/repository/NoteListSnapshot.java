@@ -0,0 +1,203 @@
+package com.example.notebook.repository;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.notebook.entities.NoteSummary;
+import com.example.notebook.metrics.Metrics;
+import com.example.notebook.utilities.AppExecutors;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A small binary copy of the notes on the first screen of the grid, so the grid can be shown on
+ * a cold start before the database has answered. It's only a few KB no matter how many notes
+ * there are, so reading it on the main thread costs about the same with 10 or with 100k notes.
+ *
+ * The snapshot is written in background whenever the first notes change. The notes from the
+ * database replace it as soon as they are there, the adapter only rebinds what differs.
+ * */
+public class NoteListSnapshot {
+
+    private static final String TAG = "NoteListSnapshot";
+    private static final String FILE_NAME = "notes_snapshot.bin";
+    private static final String TRACE_READ = "NoteListSnapshot.read";
+
+    /** Start of the file, it's changed with the format so an old snapshot is ignored */
+    private static final int MAGIC = 0x4E4F5431;
+
+    /** About what fits on one screen of the grid */
+    public static final int SNAPSHOT_SIZE = 20;
+
+    /**
+     * Longer strings are cut, the grid shows a few lines of them anyway. writeUTF() takes at
+     * most 65535 bytes, which are at least 21845 characters.
+     * */
+    private static final int MAX_STRING_LENGTH = 4096;
+
+    /** The snapshot is written by one task after another, so an older one never replaces a newer one */
+    private static final Executor writeExecutor = AppExecutors.serial(AppExecutors.getInstance().io());
+
+    /** The content of the last written snapshot, only touched on the main thread */
+    private static byte[] lastWritten;
+
+    private NoteListSnapshot() {
+    }
+
+    /** Reads the snapshot, returns an empty list when there is none or it can't be read */
+    public static List<NoteSummary> read(Context context) {
+        long start = Metrics.begin(TRACE_READ);
+        try {
+            return readFile(context);
+        } finally {
+            Metrics.end(TRACE_READ, start);
+        }
+    }
+
+    private static List<NoteSummary> readFile(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if(!file.exists()) {
+            return Collections.emptyList();
+        }
+        DataInputStream input = null;
+        try {
+            /** Read at once, it's small, instead of a read call for every field */
+            byte[] content = new byte[(int) file.length()];
+            FileInputStream fileInput = new FileInputStream(file);
+            try {
+                int length = 0;
+                while (length < content.length) {
+                    int count = fileInput.read(content, length, content.length - length);
+                    if(count < 0) {
+                        break;
+                    }
+                    length += count;
+                }
+            } finally {
+                fileInput.close();
+            }
+            input = new DataInputStream(new ByteArrayInputStream(content));
+            if(input.readInt() != MAGIC) {
+                return Collections.emptyList();
+            }
+            int count = input.readInt();
+            List<NoteSummary> notes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                NoteSummary note = new NoteSummary();
+                note.setId(input.readInt());
+                note.setTitle(readString(input));
+                note.setSubTitle(readString(input));
+                note.setCreatedAt(input.readLong());
+                note.setUpdatedAt(input.readLong());
+                note.setDateTime(readString(input));
+                note.setColor(readString(input));
+                note.setImagePath(readString(input));
+                notes.add(note);
+            }
+            return notes;
+        } catch (IOException exception) {
+            Log.w(TAG, "Can't read the notes snapshot", exception);
+            return Collections.emptyList();
+        } finally {
+            if(input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the first SNAPSHOT_SIZE notes for the next start. The notes are encoded here, which
+     * is quick for this few, and written on the io executor only when they have changed. Must be
+     * called on the main thread.
+     * */
+    public static void write(Context context, List<NoteSummary> notes) {
+        final File directory = context.getApplicationContext().getFilesDir();
+        final byte[] content;
+        try {
+            content = encode(notes.subList(0, Math.min(notes.size(), SNAPSHOT_SIZE)));
+        } catch (IOException exception) {
+            /** An old snapshot would be shown on every start, so there is none instead */
+            Log.w(TAG, "Can't encode the notes snapshot", exception);
+            lastWritten = null;
+            writeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    new File(directory, FILE_NAME).delete();
+                }
+            });
+            return;
+        }
+        if(Arrays.equals(content, lastWritten)) {
+            return;
+        }
+        lastWritten = content;
+
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                /** Written to a temporary file first, so a half written snapshot is never read */
+                File temporaryFile = new File(directory, FILE_NAME + ".tmp");
+                try {
+                    FileOutputStream output = new FileOutputStream(temporaryFile);
+                    try {
+                        output.write(content);
+                    } finally {
+                        output.close();
+                    }
+                    if(!temporaryFile.renameTo(new File(directory, FILE_NAME))) {
+                        temporaryFile.delete();
+                    }
+                } catch (IOException exception) {
+                    Log.w(TAG, "Can't write the notes snapshot", exception);
+                    temporaryFile.delete();
+                }
+            }
+        });
+    }
+
+    private static byte[] encode(List<NoteSummary> notes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(MAGIC);
+        output.writeInt(notes.size());
+        for (NoteSummary note : notes) {
+            output.writeInt(note.getId());
+            writeString(output, note.getTitle());
+            writeString(output, note.getSubTitle());
+            output.writeLong(note.getCreatedAt());
+            output.writeLong(note.getUpdatedAt());
+            writeString(output, note.getDateTime());
+            writeString(output, note.getColor());
+            writeString(output, note.getImagePath());
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Strings may be null, so every string starts with a flag */
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if(value != null) {
+            output.writeUTF(value.length() > MAX_STRING_LENGTH ? value.substring(0, MAX_STRING_LENGTH) : value);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
@@ -0,0 +1,470 @@
+package com.example.notebook.repository;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LiveData;
+import androidx.room.InvalidationTracker;
+
+import com.example.notebook.dao.NoteDao;
+import com.example.notebook.database.NotesDatabase;
+import com.example.notebook.entities.Note;
+import com.example.notebook.entities.NoteSummary;
+import com.example.notebook.images.ImageImporter;
+import com.example.notebook.metrics.Metrics;
+import com.example.notebook.utilities.AppExecutors;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * The only way activities reach the notes in database.
+ *
+ * The note list is observed, Room updates it after every write, no matter who wrote it. Other
+ * reads run on the database read executor and writes on the database write executor of
+ * AppExecutors, so reads don't wait behind writes. Their results are delivered on the main thread and
+ * only while the LifecycleOwner which asked for them is not destroyed, or always when there is
+ * no LifecycleOwner, like for a ViewModel.
+ *
+ * Recently opened and saved notes are kept in memory, so the editor can show them at once. Only
+ * their ids are passed between activities, never the notes themselves.
+ * */
+public class NoteRepository {
+
+    public interface Callback<T> {
+        /** Called on the main thread */
+        void onResult(T result);
+    }
+
+    public interface SaveCallback {
+        /** Called on the main thread with the note as it is in database now */
+        void onSaved(Note note);
+
+        /**
+         * Called on the main thread when the note was changed or deleted meanwhile, nothing was
+         * written then. current is the note as it is in database now, null if it was deleted.
+         * */
+        void onConflict(Note current);
+    }
+
+    /**
+     * Told about every change of the notes table, so notes which are not observed, like the older
+     * pages of the grid, can be read again. Room's InvalidationTracker reports the changes, so
+     * writes which don't go through the repository are included. Called on the main thread.
+     * */
+    public interface NotesChangeListener {
+        void onNotesChanged();
+    }
+
+    private interface Query<T> {
+        T run();
+    }
+
+    private static class SaveResult {
+
+        final Note note;
+        final boolean isConflict;
+
+        SaveResult(Note note, boolean isConflict) {
+            this.note = note;
+            this.isConflict = isConflict;
+        }
+    }
+
+    /** What changedColumns() found, MANY_COLUMNS when more than one column has changed */
+    private static final int NO_COLUMN = 0;
+    private static final int COLUMN_COLOR = 1;
+    private static final int COLUMN_WEB_LINK = 2;
+    private static final int COLUMN_IMAGE_PATH = 3;
+    private static final int COLUMN_NOTE_TEXT = 4;
+    private static final int MANY_COLUMNS = 5;
+
+    /** Size of the recent notes cache, counted in characters of the notes */
+    private static final int RECENT_NOTES_CACHE_CHARS = 512 * 1024;
+
+    private static final String CACHE_RECENT_NOTES = "notes.recent";
+    private static final String TRACE_GET_NOTE = "NoteRepository.getNoteById";
+
+    private static NoteRepository noteRepository;
+
+    private final NoteDao noteDao;
+    private final AppExecutors appExecutors;
+    private final List<NotesChangeListener> notesChangeListeners = new CopyOnWriteArrayList<>();
+    /** Called on a background thread of Room after a transaction changed the notes */
+    private final InvalidationTracker.Observer notesObserver = new InvalidationTracker.Observer("notes") {
+        @Override
+        public void onInvalidated(@NonNull Set<String> tables) {
+            notifyNotesChanged();
+        }
+    };
+    /**
+     * Reads and writes run in parallel, so a note read before a write may be put into the cache
+     * after it. Notes are only put while holding the cache: a note replaces a cached one only if
+     * its version is newer, and a read note is only put if no note was removed since the read
+     * started, see cacheReadNote().
+     * */
+    private final LruCache<Integer, Note> recentNotes = new LruCache<Integer, Note>(RECENT_NOTES_CACHE_CHARS) {
+        @Override
+        protected int sizeOf(Integer id, Note note) {
+            return 1 + length(note.getTitle()) + length(note.getSubTitle()) + length(note.getNoteText());
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Integer id, Note oldNote, Note newNote) {
+            if(evicted) {
+                removedNotesCount++;
+            }
+        }
+    };
+    /** Notes removed from recentNotes so far, only changed while holding recentNotes */
+    private long removedNotesCount;
+
+    public static synchronized NoteRepository getInstance(Context context) {
+        if(noteRepository == null) {
+            noteRepository = new NoteRepository(
+                    NotesDatabase.getDatabase(context.getApplicationContext()),
+                    AppExecutors.getInstance()
+            );
+        }
+        return noteRepository;
+    }
+
+    private NoteRepository(NotesDatabase notesDatabase, AppExecutors appExecutors) {
+        this.noteDao = notesDatabase.noteDao();
+        this.appExecutors = appExecutors;
+        /** The repository lives as long as the app, so the observer is never removed */
+        notesDatabase.getInvalidationTracker().addObserver(notesObserver);
+    }
+
+    /** For the work which has its own thread, like searching, and must call the dao directly */
+    public NoteDao getNoteDao() {
+        return noteDao;
+    }
+
+    /** The newest notes, at most limit of them, updated after every change of the notes */
+    public LiveData<List<NoteSummary>> observeNotes(int limit) {
+        return noteDao.observeNotes(limit);
+    }
+
+    /** The notes from fromId on, updated after every change of the notes */
+    public LiveData<List<NoteSummary>> observeNotesFrom(int fromId) {
+        return noteDao.observeNotesFrom(fromId);
+    }
+
+    /** The next page of the grid, the notes older than lastId */
+    public void getNotesPageBefore(final int lastId, final int limit, LifecycleOwner owner,
+                                   Callback<List<NoteSummary>> callback) {
+        read(new Query<List<NoteSummary>>() {
+            @Override
+            public List<NoteSummary> run() {
+                return noteDao.getNotesPageBefore(lastId, limit);
+            }
+        }, owner, callback);
+    }
+
+    /** The loaded pages of the grid after the first one again, the notes from fromId up to beforeId */
+    public void getNotesBetween(final int fromId, final int beforeId, LifecycleOwner owner,
+                                Callback<List<NoteSummary>> callback) {
+        read(new Query<List<NoteSummary>>() {
+            @Override
+            public List<NoteSummary> run() {
+                return noteDao.getNotesBetween(fromId, beforeId);
+            }
+        }, owner, callback);
+    }
+
+    /**
+     * Deletes the imported images which no note uses anymore, like the ones of deleted notes or
+     * replaced images, see ImageImporter.deleteUnusedImages(). Does nothing when that was done
+     * recently.
+     * */
+    public void deleteUnusedImages(Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        if(!ImageImporter.isCleanupDue(applicationContext)) {
+            return;
+        }
+        read(new Query<List<String>>() {
+            @Override
+            public List<String> run() {
+                return noteDao.getImagePaths();
+            }
+        }, null, new Callback<List<String>>() {
+            @Override
+            public void onResult(List<String> imagePaths) {
+                ImageImporter.deleteUnusedImages(applicationContext, imagePaths);
+            }
+        });
+    }
+
+    public void addNotesChangeListener(NotesChangeListener listener) {
+        notesChangeListeners.add(listener);
+    }
+
+    public void removeNotesChangeListener(NotesChangeListener listener) {
+        notesChangeListeners.remove(listener);
+    }
+
+    /** Like observeNotes(), but the most recently changed notes first */
+    public LiveData<List<NoteSummary>> observeNotesByUpdatedAt(int limit) {
+        return noteDao.observeNotesByUpdatedAt(limit);
+    }
+
+    /** Returns the note if it was opened or saved recently, null if it must be read with getNoteById() */
+    public Note getCachedNote(int id) {
+        Note note = recentNotes.get(id);
+        Metrics.countCache(CACHE_RECENT_NOTES, note != null);
+        return note;
+    }
+
+    public void getNoteById(final int id, LifecycleOwner owner, Callback<Note> callback) {
+        read(new Query<Note>() {
+            @Override
+            public Note run() {
+                Note note;
+                long removedCount;
+                synchronized (recentNotes) {
+                    note = recentNotes.get(id);
+                    removedCount = removedNotesCount;
+                }
+                if(note == null) {
+                    long start = Metrics.begin(TRACE_GET_NOTE);
+                    try {
+                        note = noteDao.getNoteById(id);
+                    } finally {
+                        Metrics.end(TRACE_GET_NOTE, start);
+                    }
+                    if(note != null) {
+                        cacheReadNote(note, removedCount);
+                    }
+                }
+                return note;
+            }
+        }, owner, callback);
+    }
+
+    /**
+     * Inserts the note if savedNote is null. Otherwise it updates savedNote, the note as it was
+     * read or saved last, to the content of note. Only the changed column is written when a
+     * single one has changed and nothing is written when nothing has changed. The update is
+     * optimistic, see NoteDao.updateNoteIfCurrent().
+     * */
+    public void saveNote(final Note note, final Note savedNote, LifecycleOwner owner,
+                         final SaveCallback callback) {
+        write(new Query<SaveResult>() {
+            @Override
+            public SaveResult run() {
+                long now = System.currentTimeMillis();
+                if(savedNote == null) {
+                    note.setCreatedAt(now);
+                    note.setUpdatedAt(now);
+                    note.setId((int) noteDao.insertNote(note));
+                    note.setVersion(0);
+                    cacheWrittenNote(note);
+                    return new SaveResult(note, false);
+                }
+
+                int id = savedNote.getId();
+                int expectedVersion = savedNote.getVersion();
+                note.setId(id);
+                note.setCreatedAt(savedNote.getCreatedAt());
+                note.setUpdatedAt(now);
+                int updated;
+                switch (changedColumns(savedNote, note)) {
+                    case NO_COLUMN:
+                        return new SaveResult(savedNote, false);
+                    case COLUMN_COLOR:
+                        updated = noteDao.updateNoteColor(id, note.getColor(), now, expectedVersion);
+                        break;
+                    case COLUMN_WEB_LINK:
+                        updated = noteDao.updateNoteWebLink(id, note.getWebLink(), now, expectedVersion);
+                        break;
+                    case COLUMN_IMAGE_PATH:
+                        updated = noteDao.updateNoteImagePath(id, note.getImagePath(), now, expectedVersion);
+                        break;
+                    case COLUMN_NOTE_TEXT:
+                        updated = noteDao.updateNoteText(
+                                id, note.getNoteText(), note.getNotePreview(), now, expectedVersion
+                        );
+                        break;
+                    default:
+                        updated = noteDao.updateNoteIfCurrent(note, expectedVersion);
+                        break;
+                }
+
+                if(updated == 0) {
+                    uncacheNote(id);
+                    Note current = noteDao.getNoteById(id);
+                    if(current != null) {
+                        cacheWrittenNote(current);
+                    }
+                    return new SaveResult(current, true);
+                }
+                note.setVersion(expectedVersion + 1);
+                cacheWrittenNote(note);
+                return new SaveResult(note, false);
+            }
+        }, owner, new Callback<SaveResult>() {
+            @Override
+            public void onResult(SaveResult result) {
+                if(result.isConflict) {
+                    callback.onConflict(result.note);
+                } else {
+                    callback.onSaved(result.note);
+                }
+            }
+        });
+    }
+
+    public void deleteNote(final Note note, LifecycleOwner owner, Callback<Void> callback) {
+        write(new Query<Void>() {
+            @Override
+            public Void run() {
+                noteDao.deleteNote(note);
+                uncacheNote(note.getId());
+                return null;
+            }
+        }, owner, callback);
+    }
+
+    /** Finds the one column which differs between the notes, see the COLUMN constants */
+    private static int changedColumns(Note note, Note other) {
+        if(!equals(note.getTitle(), other.getTitle())
+                || !equals(note.getSubTitle(), other.getSubTitle())
+                || !equals(note.getDateTime(), other.getDateTime())) {
+            return MANY_COLUMNS;
+        }
+        int changed = NO_COLUMN;
+        int changedCount = 0;
+        if(!equals(note.getColor(), other.getColor())) {
+            changed = COLUMN_COLOR;
+            changedCount++;
+        }
+        if(!equals(note.getWebLink(), other.getWebLink())) {
+            changed = COLUMN_WEB_LINK;
+            changedCount++;
+        }
+        if(!equals(note.getImagePath(), other.getImagePath())) {
+            changed = COLUMN_IMAGE_PATH;
+            changedCount++;
+        }
+        if(!equals(note.getNoteText(), other.getNoteText())) {
+            changed = COLUMN_NOTE_TEXT;
+            changedCount++;
+        }
+        return changedCount > 1 ? MANY_COLUMNS : changed;
+    }
+
+    private static boolean equals(Object first, Object second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /** Deletes the notes in one transaction, the callback gets how many were deleted */
+    public void deleteNotes(final List<Integer> ids, LifecycleOwner owner, Callback<Integer> callback) {
+        write(new Query<Integer>() {
+            @Override
+            public Integer run() {
+                int deleted = noteDao.deleteNotesByIds(ids);
+                for (Integer id : ids) {
+                    uncacheNote(id);
+                }
+                return deleted;
+            }
+        }, owner, callback);
+    }
+
+    /** Sets the color of the notes in one transaction, the callback gets how many were changed */
+    public void setNotesColor(final List<Integer> ids, final String color, LifecycleOwner owner,
+                              Callback<Integer> callback) {
+        write(new Query<Integer>() {
+            @Override
+            public Integer run() {
+                int updated = noteDao.updateNotesColor(ids, color, System.currentTimeMillis());
+                for (Integer id : ids) {
+                    uncacheNote(id);
+                }
+                return updated;
+            }
+        }, owner, callback);
+    }
+
+    /** Only puts the note if no note was removed from the cache since it was read, or its version is newer */
+    private void cacheReadNote(Note note, long removedCountBeforeRead) {
+        synchronized (recentNotes) {
+            Note cached = recentNotes.get(note.getId());
+            if(cached != null
+                    ? cached.getVersion() < note.getVersion()
+                    : removedNotesCount == removedCountBeforeRead) {
+                recentNotes.put(note.getId(), note);
+            }
+        }
+    }
+
+    /** Called on the write thread, the written note is current unless a newer version is cached */
+    private void cacheWrittenNote(Note note) {
+        synchronized (recentNotes) {
+            Note cached = recentNotes.get(note.getId());
+            if(cached == null || cached.getVersion() <= note.getVersion()) {
+                recentNotes.put(note.getId(), note);
+            }
+        }
+    }
+
+    /** Called on the write thread after the note was changed or deleted */
+    private void uncacheNote(int id) {
+        synchronized (recentNotes) {
+            recentNotes.remove(id);
+            removedNotesCount++;
+        }
+    }
+
+    /** The listeners are called on the main thread */
+    private void notifyNotesChanged() {
+        if(notesChangeListeners.isEmpty()) {
+            return;
+        }
+        appExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (NotesChangeListener listener : notesChangeListeners) {
+                    listener.onNotesChanged();
+                }
+            }
+        });
+    }
+
+    private static int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    private <T> void read(Query<T> query, LifecycleOwner owner, Callback<T> callback) {
+        run(appExecutors.databaseRead(), query, owner, callback);
+    }
+
+    private <T> void write(Query<T> query, LifecycleOwner owner, Callback<T> callback) {
+        run(appExecutors.databaseWrite(), query, owner, callback);
+    }
+
+    private <T> void run(Executor executor, final Query<T> query, final LifecycleOwner owner,
+                         final Callback<T> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final T result = query.run();
+                appExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(callback != null && (owner == null
+                                || owner.getLifecycle().getCurrentState() != Lifecycle.State.DESTROYED)) {
+                            callback.onResult(result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
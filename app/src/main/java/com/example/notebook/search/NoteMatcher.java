@@ -0,0 +1,86 @@
+package com.example.notebook.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches search terms against a text in memory with the same rules as the FTS index, so that
+ * a previous result set can be narrowed without asking the database and so that the matched
+ * parts of a note can be highlighted.
+ * */
+final class NoteMatcher {
+
+    private static final int[] NO_RANGES = new int[0];
+
+    private NoteMatcher() {
+    }
+
+    static boolean isTokenChar(char c) {
+        return c >= 128
+                || (c >= '0' && c <= '9')
+                || (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z');
+    }
+
+    static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Looks for words in text which start with one of the terms. found[i] is set when terms[i]
+     * matched a word. Returns the matched ranges as start and end offset pairs.
+     * */
+    static int[] match(String text, List<String> terms, boolean[] found) {
+        if(text == null || text.isEmpty()) {
+            return NO_RANGES;
+        }
+        int[] ranges = NO_RANGES;
+        int rangeCount = 0;
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            while (start < length && !isTokenChar(text.charAt(start))) {
+                start++;
+            }
+            int end = start;
+            while (end < length && isTokenChar(text.charAt(end))) {
+                end++;
+            }
+            int matchedLength = 0;
+            for (int i = 0; i < terms.size(); i++) {
+                String term = terms.get(i);
+                if(term.length() <= end - start && startsWithFolded(text, start, term)) {
+                    found[i] = true;
+                    matchedLength = Math.max(matchedLength, term.length());
+                }
+            }
+            if(matchedLength > 0) {
+                if(ranges.length == rangeCount) {
+                    ranges = Arrays.copyOf(ranges, Math.max(4, rangeCount * 2));
+                }
+                ranges[rangeCount++] = start;
+                ranges[rangeCount++] = start + matchedLength;
+            }
+            start = end;
+        }
+        return rangeCount == ranges.length ? ranges : Arrays.copyOf(ranges, rangeCount);
+    }
+
+    static boolean allFound(boolean[] found) {
+        for (boolean termFound : found) {
+            if(!termFound) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWithFolded(String text, int offset, String term) {
+        for (int i = 0; i < term.length(); i++) {
+            if(fold(text.charAt(offset + i)) != term.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.notebook.search;
+
+/**
+ * Where the search terms were found in the title and the subtitle of a note. Ranges are stored
+ * as start and end offset pairs.
+ * */
+public class NoteMatches {
+
+    private final int[] titleRanges;
+    private final int[] subTitleRanges;
+
+    NoteMatches(int[] titleRanges, int[] subTitleRanges) {
+        this.titleRanges = titleRanges;
+        this.subTitleRanges = subTitleRanges;
+    }
+
+    public int[] getTitleRanges() {
+        return titleRanges;
+    }
+
+    public int[] getSubTitleRanges() {
+        return subTitleRanges;
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.notebook.search;
+
+import com.example.notebook.entities.NoteSearchResult;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Helpers for the full text search of notes. It turns what the user typed into an FTS4 MATCH
+ * query and ranks all the matches returned by NoteDao.searchNotes().
+ * */
+public final class NoteSearch {
+
+    /** All matching notes are ranked, at most this many of the best ones are shown */
+    public static final int RESULT_LIMIT = 1000;
+
+    /** Weights of the indexed columns in the order of NoteFts: title, sub_title, note_text */
+    private static final double[] COLUMN_WEIGHTS = {3.0, 2.0, 1.0};
+
+    private NoteSearch() {
+    }
+
+    /**
+     * Splits the keyword into search terms the same way the "simple" FTS tokenizer splits the
+     * notes: ASCII letters and digits and every non ASCII character are part of a word,
+     * everything else separates words. ASCII letters are folded to lower case.
+     * */
+    public static List<String> parseTerms(String keyword) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= keyword.length(); i++) {
+            char c = i < keyword.length() ? keyword.charAt(i) : ' ';
+            if(NoteMatcher.isTokenChar(c)) {
+                term.append(NoteMatcher.fold(c));
+            } else if(term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Every term becomes a prefix term, so "meet tom" matches notes which have words starting
+     * with "meet" and "tom". Characters which have a meaning in the FTS query syntax never get
+     * into a term. Returns null if there is nothing to search for.
+     * */
+    public static String buildMatchQuery(List<String> terms) {
+        if(terms.isEmpty()) {
+            return null;
+        }
+        StringBuilder query = new StringBuilder();
+        for (String term : terms) {
+            if(query.length() > 0) {
+                query.append(' ');
+            }
+            query.append(term).append('*');
+        }
+        return query.toString();
+    }
+
+    /**
+     * A query narrows the previous one when every previous term is a prefix of the term at the
+     * same place, like "meet" and "meeti" or "meet" and "meet tom". Every note matching the new
+     * query then also matched the previous one.
+     * */
+    public static boolean narrows(List<String> previousTerms, List<String> terms) {
+        if(previousTerms == null || previousTerms.isEmpty() || terms.size() < previousTerms.size()) {
+            return false;
+        }
+        for (int i = 0; i < previousTerms.size(); i++) {
+            if(!terms.get(i).startsWith(previousTerms.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The previous result can be narrowed down in memory instead of searching again when the
+     * query narrows the previous one and the previous result was complete. A result of
+     * RESULT_LIMIT notes may have been cut off, the notes it misses could match the new query.
+     * */
+    public static boolean canNarrow(List<String> previousTerms, int previousResultCount, List<String> terms) {
+        return previousResultCount < RESULT_LIMIT && narrows(previousTerms, terms);
+    }
+
+    /**
+     * Sorts the results by relevance and returns the ids of at most limit of the best ones.
+     * matchinfo(notes_fts, 'pcx') holds the number of phrases, the number of columns and then for
+     * every phrase and column the hits in this row, the hits in all rows and the number of rows
+     * with hits. Hits in rare terms and in the title count more. Of notes with the same score
+     * the newer one comes first.
+     * */
+    public static List<Integer> rank(final List<NoteSearchResult> results, int limit) {
+        final double[] scores = new double[results.size()];
+        final List<Integer> order = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            scores[i] = score(results.get(i).getMatchInfo());
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                int byScore = Double.compare(scores[second], scores[first]);
+                return byScore != 0
+                        ? byScore
+                        : Integer.compare(results.get(second).getId(), results.get(first).getId());
+            }
+        });
+
+        List<Integer> ids = new ArrayList<>(Math.min(limit, results.size()));
+        for (int index : order.subList(0, Math.min(limit, order.size()))) {
+            ids.add(results.get(index).getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Ranks notes which were narrowed down in memory, the way rank() ranks the matches of the
+     * index. columns holds the title, sub_title and note text of every note, the preview stands
+     * for the text when the text wasn't read. The hits of a term in all rows are counted over
+     * these notes only, which are all notes matching the query when a result is narrowed. Notes
+     * with the same score keep their order.
+     * */
+    public static <T> List<T> rank(List<T> notes, final List<String[]> columns, List<String> terms) {
+        final int columnCount = COLUMN_WEIGHTS.length;
+        final int[][] hits = new int[notes.size()][terms.size() * columnCount];
+        int[] hitsInAllRows = new int[terms.size() * columnCount];
+        boolean[] found = new boolean[1];
+        for (int note = 0; note < notes.size(); note++) {
+            for (int term = 0; term < terms.size(); term++) {
+                List<String> singleTerm = Collections.singletonList(terms.get(term));
+                for (int column = 0; column < columnCount; column++) {
+                    int count = NoteMatcher.match(columns.get(note)[column], singleTerm, found).length / 2;
+                    hits[note][term * columnCount + column] = count;
+                    hitsInAllRows[term * columnCount + column] += count;
+                }
+            }
+        }
+
+        final double[] scores = new double[notes.size()];
+        List<Integer> order = new ArrayList<>(notes.size());
+        for (int note = 0; note < notes.size(); note++) {
+            for (int i = 0; i < hitsInAllRows.length; i++) {
+                if(hits[note][i] > 0) {
+                    scores[note] += COLUMN_WEIGHTS[i % columnCount] * hits[note][i] / hitsInAllRows[i];
+                }
+            }
+            order.add(note);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Double.compare(scores[second], scores[first]);
+            }
+        });
+
+        List<T> ranked = new ArrayList<>(notes.size());
+        for (int index : order) {
+            ranked.add(notes.get(index));
+        }
+        return ranked;
+    }
+
+    private static double score(byte[] matchInfo) {
+        if(matchInfo == null || matchInfo.length < 8) {
+            return 0;
+        }
+        IntBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phraseCount = info.get(0);
+        int columnCount = info.get(1);
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount && column < COLUMN_WEIGHTS.length; column++) {
+                int offset = 2 + 3 * (phrase * columnCount + column);
+                int hitsInRow = info.get(offset);
+                int hitsInAllRows = info.get(offset + 1);
+                if(hitsInRow > 0 && hitsInAllRows > 0) {
+                    score += COLUMN_WEIGHTS[column] * hitsInRow / hitsInAllRows;
+                }
+            }
+        }
+        return score;
+    }
+}
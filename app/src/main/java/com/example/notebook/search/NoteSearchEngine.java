@@ -0,0 +1,228 @@
+package com.example.notebook.search;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.notebook.dao.NoteDao;
+import com.example.notebook.entities.Note;
+import com.example.notebook.entities.NoteSummary;
+import com.example.notebook.metrics.Metrics;
+import com.example.notebook.utilities.AppExecutors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs note searches one after another on the compute pool of AppExecutors.
+ *
+ * Every call of search() gets a new generation number. The search is started only after the user
+ * stopped typing for DEBOUNCE_MILLIS and its result is delivered on the main thread only if no
+ * newer search was requested in the meantime, so a slow old search can never overwrite the
+ * result of a newer one.
+ *
+ * When a query narrows the previous one ("meet" to "meeti") the previous result is filtered in
+ * memory instead of searching all notes again, and ranked again for the new terms. Only the
+ * notes which can't be decided by their title, subtitle and preview have their text loaded. When
+ * that would be more than MAX_UNDECIDED_NOTES, reading their texts costs more than the index, the
+ * index is searched instead.
+ * */
+public class NoteSearchEngine {
+
+    private static final long DEBOUNCE_MILLIS = 300;
+    private static final int MAX_IDS_PER_QUERY = 500;
+    private static final int MAX_UNDECIDED_NOTES = 50;
+    private static final String TRACE_SEARCH = "NoteSearchEngine.search";
+
+    public interface Callback {
+        /**
+         * Called on the main thread. notes is null when there was nothing to search for,
+         * matches holds the highlights of the found notes by note id.
+         * */
+        void onSearchResult(List<NoteSummary> notes, Map<Integer, NoteMatches> matches);
+    }
+
+    private final NoteDao noteDao;
+    private final Executor executor = AppExecutors.serial(AppExecutors.getInstance().compute());
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicInteger dataVersion = new AtomicInteger();
+    private Runnable pendingSearch;
+
+    /** The last search, only touched by the serial search tasks */
+    private List<String> lastTerms;
+    private List<NoteSummary> lastResult;
+    private int lastDataVersion;
+
+    public NoteSearchEngine(NoteDao noteDao) {
+        this.noteDao = noteDao;
+    }
+
+    /** Must be called from the main thread */
+    public void search(final String keyword, final Callback callback) {
+        final int searchGeneration = generation.incrementAndGet();
+        if(pendingSearch != null) {
+            mainHandler.removeCallbacks(pendingSearch);
+            pendingSearch = null;
+        }
+
+        final List<String> terms = NoteSearch.parseTerms(keyword);
+        if(terms.isEmpty()) {
+            callback.onSearchResult(null, null);
+            return;
+        }
+
+        pendingSearch = new Runnable() {
+            @Override
+            public void run() {
+                pendingSearch = null;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(searchGeneration != generation.get()) {
+                            return;
+                        }
+                        long start = Metrics.begin(TRACE_SEARCH);
+                        final List<NoteSummary> notes;
+                        final Map<Integer, NoteMatches> matches;
+                        try {
+                            notes = findNotes(terms);
+                            matches = findMatches(notes, terms);
+                        } finally {
+                            Metrics.end(TRACE_SEARCH, start);
+                        }
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if(searchGeneration == generation.get()) {
+                                    callback.onSearchResult(notes, matches);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        };
+        mainHandler.postDelayed(pendingSearch, DEBOUNCE_MILLIS);
+    }
+
+    /** Drops the pending search and any result which is still on its way */
+    public void cancel() {
+        generation.incrementAndGet();
+        if(pendingSearch != null) {
+            mainHandler.removeCallbacks(pendingSearch);
+            pendingSearch = null;
+        }
+    }
+
+    /** Must be called when notes were added, changed or deleted, so the next search starts over */
+    public void invalidate() {
+        dataVersion.incrementAndGet();
+    }
+
+    public void shutdown() {
+        cancel();
+    }
+
+    private List<NoteSummary> findNotes(List<String> terms) {
+        int currentDataVersion = dataVersion.get();
+        List<NoteSummary> notes = null;
+        if(lastResult != null
+                && lastDataVersion == currentDataVersion
+                && NoteSearch.canNarrow(lastTerms, lastResult.size(), terms)) {
+            notes = narrow(lastResult, terms);
+        }
+        if(notes != null) {
+            Metrics.count("search.narrowed");
+        } else {
+            notes = getNoteSummaries(NoteSearch.rank(
+                    noteDao.searchNotes(NoteSearch.buildMatchQuery(terms)), NoteSearch.RESULT_LIMIT
+            ));
+            Metrics.count("search.fts");
+        }
+        lastTerms = terms;
+        lastResult = notes;
+        lastDataVersion = currentDataVersion;
+        return notes;
+    }
+
+    /**
+     * Keeps the notes of the previous result which match all the terms, ranked for the terms.
+     * Returns null when too many notes would need their text read, the index must be searched.
+     * */
+    private List<NoteSummary> narrow(List<NoteSummary> previous, List<String> terms) {
+        Map<Integer, String> texts = new HashMap<>();
+        List<Integer> undecidedIds = new ArrayList<>();
+        for (NoteSummary note : previous) {
+            boolean[] found = new boolean[terms.size()];
+            NoteMatcher.match(note.getTitle(), terms, found);
+            NoteMatcher.match(note.getSubTitle(), terms, found);
+            NoteMatcher.match(note.getNotePreview(), terms, found);
+            if(NoteMatcher.allFound(found)) {
+                texts.put(note.getId(), note.getNotePreview());
+            } else {
+                undecidedIds.add(note.getId());
+            }
+        }
+        if(undecidedIds.size() > MAX_UNDECIDED_NOTES) {
+            return null;
+        }
+
+        if(!undecidedIds.isEmpty()) {
+            for (Note note : noteDao.getNotesByIds(undecidedIds)) {
+                boolean[] found = new boolean[terms.size()];
+                NoteMatcher.match(note.getTitle(), terms, found);
+                NoteMatcher.match(note.getSubTitle(), terms, found);
+                NoteMatcher.match(note.getNoteText(), terms, found);
+                if(NoteMatcher.allFound(found)) {
+                    texts.put(note.getId(), note.getNoteText());
+                }
+            }
+        }
+
+        List<NoteSummary> notes = new ArrayList<>(texts.size());
+        List<String[]> columns = new ArrayList<>(texts.size());
+        for (NoteSummary note : previous) {
+            if(texts.containsKey(note.getId())) {
+                notes.add(note);
+                columns.add(new String[] {note.getTitle(), note.getSubTitle(), texts.get(note.getId())});
+            }
+        }
+        return NoteSearch.rank(notes, columns, terms);
+    }
+
+    /** The summaries of the notes, in the order of the ids */
+    private List<NoteSummary> getNoteSummaries(List<Integer> ids) {
+        Map<Integer, NoteSummary> notesById = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+            for (NoteSummary note : noteDao.getNoteSummariesByIds(
+                    ids.subList(from, Math.min(from + MAX_IDS_PER_QUERY, ids.size())))) {
+                notesById.put(note.getId(), note);
+            }
+        }
+        List<NoteSummary> notes = new ArrayList<>(notesById.size());
+        for (Integer id : ids) {
+            NoteSummary note = notesById.get(id);
+            if(note != null) {
+                notes.add(note);
+            }
+        }
+        return notes;
+    }
+
+    private Map<Integer, NoteMatches> findMatches(List<NoteSummary> notes, List<String> terms) {
+        Map<Integer, NoteMatches> matches = new HashMap<>();
+        boolean[] found = new boolean[terms.size()];
+        for (NoteSummary note : notes) {
+            int[] titleRanges = NoteMatcher.match(note.getTitle(), terms, found);
+            int[] subTitleRanges = NoteMatcher.match(note.getSubTitle(), terms, found);
+            if(titleRanges.length > 0 || subTitleRanges.length > 0) {
+                matches.put(note.getId(), new NoteMatches(titleRanges, subTitleRanges));
+            }
+        }
+        return matches;
+    }
+}
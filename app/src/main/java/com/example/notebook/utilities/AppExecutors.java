@@ -0,0 +1,148 @@
+package com.example.notebook.utilities;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * All background threads of the app, in one place where their sizes can be tuned.
+ *
+ * Database reads and writes have their own executors, so a read never waits in line behind a
+ * write. SQLite allows only one writer at a time, so there is only one write thread. File work,
+ * like importing images, has its own executor. Searching and image decoding use the compute pool,
+ * which is not larger than the number of cores.
+ * */
+public class AppExecutors {
+
+    private static final int DATABASE_READ_THREADS = 2;
+    private static final int IO_THREADS = 2;
+    private static final int COMPUTE_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static AppExecutors appExecutors;
+
+    private final ExecutorService databaseRead;
+    private final ExecutorService databaseWrite;
+    private final ExecutorService io;
+    private final ExecutorService compute;
+    private final Executor mainThread;
+
+    public static synchronized AppExecutors getInstance() {
+        if(appExecutors == null) {
+            appExecutors = new AppExecutors();
+        }
+        return appExecutors;
+    }
+
+    private AppExecutors() {
+        databaseRead = newPool("db-read", DATABASE_READ_THREADS);
+        databaseWrite = newPool("db-write", 1);
+        io = newPool("io", IO_THREADS);
+        compute = newPool("compute", COMPUTE_THREADS);
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mainThread = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mainHandler.post(command);
+            }
+        };
+    }
+
+    public ExecutorService databaseRead() {
+        return databaseRead;
+    }
+
+    public ExecutorService databaseWrite() {
+        return databaseWrite;
+    }
+
+    public ExecutorService io() {
+        return io;
+    }
+
+    public ExecutorService compute() {
+        return compute;
+    }
+
+    public Executor mainThread() {
+        return mainThread;
+    }
+
+    /** An executor which runs its tasks one after another, in order, on the given executor */
+    public static Executor serial(Executor executor) {
+        return new SerialExecutor(executor);
+    }
+
+    private static ExecutorService newPool(final String name, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, name + "-" + count.incrementAndGet());
+                    }
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class SerialExecutor implements Executor {
+
+        private final Executor executor;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private Runnable active;
+
+        SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public synchronized void execute(@NonNull final Runnable command) {
+            tasks.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if(active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if(active != null) {
+                executor.execute(active);
+            }
+        }
+    }
+}
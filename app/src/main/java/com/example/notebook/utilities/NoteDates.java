@@ -0,0 +1,73 @@
+package com.example.notebook.utilities;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats the created_at and updated_at times of notes when they are shown, and reads the old
+ * date_time strings for the migration which fills those columns.
+ * */
+public class NoteDates {
+
+    private static final String DISPLAY_PATTERN = "EEEE, dd MMMM yyyy hh:mm a";
+
+    /**
+     * The pattern date_time was written with. Its "MM:mm" is month and minute, the hour was never
+     * stored, so parsed times only have the right day, minute and AM/PM.
+     * */
+    private static final String DATE_TIME_PATTERN = "EEEE, dd MMMM yyyy MM:mm a";
+
+    /** Only used on the main thread, created again when the locale changes */
+    private static SimpleDateFormat displayFormat;
+    private static Locale displayLocale;
+
+    private NoteDates() {
+    }
+
+    /** Must be called on the main thread */
+    public static String format(long millis) {
+        Locale locale = Locale.getDefault();
+        if(displayFormat == null || !locale.equals(displayLocale)) {
+            displayFormat = new SimpleDateFormat(DISPLAY_PATTERN, locale);
+            displayLocale = locale;
+        }
+        return displayFormat.format(new Date(millis));
+    }
+
+    /**
+     * Reads date_time values written by an older version, in the current locale or in English.
+     * The formats are created once, and the one which read the last value is tried first, since
+     * all values of a device were written in the same locale. Failed attempts don't throw.
+     * Not thread safe, one parser is made for every migration.
+     * */
+    public static class DateTimeParser {
+
+        private final SimpleDateFormat[] formats;
+        private int lastFormat = 0;
+
+        public DateTimeParser() {
+            formats = new SimpleDateFormat[] {
+                    new SimpleDateFormat(DATE_TIME_PATTERN, Locale.getDefault()),
+                    new SimpleDateFormat(DATE_TIME_PATTERN, Locale.ENGLISH)
+            };
+        }
+
+        /** Returns 0 if the value can't be read */
+        public long parse(String dateTime) {
+            if(dateTime == null || dateTime.trim().isEmpty()) {
+                return 0;
+            }
+            for (int i = 0; i < formats.length; i++) {
+                int format = (lastFormat + i) % formats.length;
+                Date date = formats[format].parse(dateTime, new ParsePosition(0));
+                if(date != null) {
+                    lastFormat = format;
+                    return date.getTime();
+                }
+            }
+            return 0;
+        }
+    }
+}
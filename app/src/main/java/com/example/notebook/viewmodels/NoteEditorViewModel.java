@@ -0,0 +1,29 @@
+package com.example.notebook.viewmodels;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+
+import com.example.notebook.repository.NoteAutosaver;
+import com.example.notebook.repository.NoteRepository;
+
+/**
+ * Keeps the NoteAutosaver of CreateNoteActivity. When the activity is only recreated, on rotation
+ * or on a switch to dark mode, the new activity gets the autosaver which knows the written note
+ * and any write still on its way, so the note is neither inserted twice nor taken as changed
+ * somewhere else.
+ * */
+public class NoteEditorViewModel extends AndroidViewModel {
+
+    private final NoteAutosaver noteAutosaver;
+
+    public NoteEditorViewModel(@NonNull Application application) {
+        super(application);
+        noteAutosaver = new NoteAutosaver(NoteRepository.getInstance(application));
+    }
+
+    public NoteAutosaver getNoteAutosaver() {
+        return noteAutosaver;
+    }
+}
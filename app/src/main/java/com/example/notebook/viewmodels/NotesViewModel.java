@@ -0,0 +1,281 @@
+package com.example.notebook.viewmodels;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+import androidx.arch.core.util.Function;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.Transformations;
+
+import com.example.notebook.entities.NoteSummary;
+import com.example.notebook.metrics.Metrics;
+import com.example.notebook.repository.NoteListSnapshot;
+import com.example.notebook.repository.NoteRepository;
+import com.example.notebook.search.NoteMatches;
+import com.example.notebook.search.NoteSearchEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the state of the notes grid: the loaded notes, the search query and its result, and the
+ * selected notes.
+ *
+ * It outlives MainActivity when the activity is only recreated, on rotation or on a switch to
+ * dark mode, so the new activity gets the notes and the search result as they were, without
+ * reading the database or searching again.
+ * */
+public class NotesViewModel extends AndroidViewModel {
+
+    /**
+     * Notes are loaded page by page. The first page is observed, so Room keeps it current. The
+     * older pages are read once each, starting right after the last loaded id, so loading a page
+     * costs the same no matter how many pages are loaded already. After a change of the notes
+     * table, by the repository or not, all older pages are read again in one query.
+     * */
+    public static final int PAGE_SIZE = 30;
+
+    /** The first page is the newest PAGE_SIZE notes until a second page is loaded, ids start at 1 */
+    private static final int NEWEST_NOTES = 0;
+
+    /** From asking for the notes until they are there, the first time that includes opening the database */
+    private static final String METRIC_LOAD_NOTES = "NotesViewModel.loadNotes";
+
+    /** The shown search result, notes is null when nothing is searched */
+    public static class SearchResult {
+
+        private final List<NoteSummary> notes;
+        private final Map<Integer, NoteMatches> matches;
+
+        SearchResult(List<NoteSummary> notes, Map<Integer, NoteMatches> matches) {
+            this.notes = notes;
+            this.matches = matches;
+        }
+
+        public List<NoteSummary> getNotes() {
+            return notes;
+        }
+
+        public Map<Integer, NoteMatches> getMatches() {
+            return matches;
+        }
+    }
+
+    private final NoteRepository noteRepository;
+    private final NoteSearchEngine noteSearchEngine;
+    /** The smallest id of the observed first page, NEWEST_NOTES while only one page is loaded */
+    private final MutableLiveData<Integer> firstPageFrom = new MutableLiveData<>();
+    private final MediatorLiveData<List<NoteSummary>> notes = new MediatorLiveData<>();
+    private final NoteRepository.NotesChangeListener notesChangeListener = new NoteRepository.NotesChangeListener() {
+        @Override
+        public void onNotesChanged() {
+            reloadOlderNotes();
+        }
+    };
+    private final MutableLiveData<SearchResult> searchResult = new MutableLiveData<>();
+    private final MutableLiveData<Set<Integer>> selectedNoteIds =
+            new MutableLiveData<>(Collections.<Integer>emptySet());
+
+    /** When the notes were asked for last, 0 when they have arrived */
+    private long loadStartNanos;
+    private String searchQuery = "";
+    private List<NoteSummary> firstPageNotes;
+    private final List<NoteSummary> olderNotes = new ArrayList<>();
+    private boolean isLoadingPage = false;
+    private boolean isLastPageLoaded = false;
+    private boolean isReloadingOlderNotes = false;
+    /** The notes changed again while the older pages were read */
+    private boolean isReloadOfOlderNotesDue = false;
+
+    public NotesViewModel(@NonNull Application application) {
+        super(application);
+        noteRepository = NoteRepository.getInstance(application);
+        noteSearchEngine = new NoteSearchEngine(noteRepository.getNoteDao());
+
+        LiveData<List<NoteSummary>> firstPage = Transformations.switchMap(firstPageFrom, new Function<Integer, LiveData<List<NoteSummary>>>() {
+            @Override
+            public LiveData<List<NoteSummary>> apply(Integer fromId) {
+                return fromId == NEWEST_NOTES
+                        ? noteRepository.observeNotes(PAGE_SIZE)
+                        : noteRepository.observeNotesFrom(fromId);
+            }
+        });
+        /** Room queries the first page again after every change of the notes table */
+        notes.addSource(firstPage, new Observer<List<NoteSummary>>() {
+            @Override
+            public void onChanged(List<NoteSummary> firstPageNotes) {
+                NotesViewModel.this.firstPageNotes = firstPageNotes;
+                if(firstPageFrom.getValue() == NEWEST_NOTES) {
+                    isLastPageLoaded = firstPageNotes.size() < PAGE_SIZE;
+                    isLoadingPage = false;
+                }
+                publishNotes();
+            }
+        });
+        noteRepository.addNotesChangeListener(notesChangeListener);
+        loadStartNanos = System.nanoTime();
+        firstPageFrom.setValue(NEWEST_NOTES);
+    }
+
+    public LiveData<List<NoteSummary>> getNotes() {
+        return notes;
+    }
+
+    public LiveData<SearchResult> getSearchResult() {
+        return searchResult;
+    }
+
+    /** Loads the notes older than the loaded ones, unless a page is on its way or all notes are loaded */
+    public void loadNextPage() {
+        if(isLoadingPage || isLastPageLoaded || firstPageNotes == null || firstPageNotes.isEmpty()) {
+            return;
+        }
+        isLoadingPage = true;
+        loadStartNanos = System.nanoTime();
+        if(olderNotes.isEmpty()) {
+            /** From now on the first page is pinned by its ids, a deleted note must not pull
+             *  the first note of the next page into it */
+            firstPageFrom.setValue(firstPageNotes.get(firstPageNotes.size() - 1).getId());
+        }
+        int lastId = olderNotes.isEmpty()
+                ? firstPageNotes.get(firstPageNotes.size() - 1).getId()
+                : olderNotes.get(olderNotes.size() - 1).getId();
+        noteRepository.getNotesPageBefore(lastId, PAGE_SIZE, null, new NoteRepository.Callback<List<NoteSummary>>() {
+            @Override
+            public void onResult(List<NoteSummary> page) {
+                olderNotes.addAll(page);
+                isLastPageLoaded = page.size() < PAGE_SIZE;
+                isLoadingPage = false;
+                publishNotes();
+            }
+        });
+    }
+
+    /**
+     * Reads the older pages again, from the pinned first page down to the last loaded id. The
+     * first page is kept current by Room. Changes while they are read cause one more read.
+     * */
+    private void reloadOlderNotes() {
+        if(olderNotes.isEmpty()) {
+            return;
+        }
+        if(isReloadingOlderNotes) {
+            isReloadOfOlderNotesDue = true;
+            return;
+        }
+        isReloadingOlderNotes = true;
+        final int lastId = olderNotes.get(olderNotes.size() - 1).getId();
+        noteRepository.getNotesBetween(lastId, firstPageFrom.getValue(), null, new NoteRepository.Callback<List<NoteSummary>>() {
+            @Override
+            public void onResult(List<NoteSummary> reloadedNotes) {
+                /** A page loaded meanwhile starts below lastId and is kept */
+                List<NoteSummary> laterPages = new ArrayList<>();
+                for (NoteSummary note : olderNotes) {
+                    if(note.getId() < lastId) {
+                        laterPages.add(note);
+                    }
+                }
+                olderNotes.clear();
+                olderNotes.addAll(reloadedNotes);
+                olderNotes.addAll(laterPages);
+                isReloadingOlderNotes = false;
+                publishNotes();
+                if(isReloadOfOlderNotesDue) {
+                    isReloadOfOlderNotesDue = false;
+                    reloadOlderNotes();
+                }
+            }
+        });
+    }
+
+    /** Shows the first page and the older pages as one list, a new list also means the next
+     *  search can't narrow down the old result */
+    private void publishNotes() {
+        if(firstPageNotes == null) {
+            return;
+        }
+        List<NoteSummary> allNotes = new ArrayList<>(firstPageNotes.size() + olderNotes.size());
+        allNotes.addAll(firstPageNotes);
+        allNotes.addAll(olderNotes);
+        noteSearchEngine.invalidate();
+        if(loadStartNanos != 0 && !isLoadingPage) {
+            Metrics.record(METRIC_LOAD_NOTES, System.nanoTime() - loadStartNanos);
+            loadStartNanos = 0;
+        }
+        NoteListSnapshot.write(getApplication(), allNotes);
+        notes.setValue(allNotes);
+        /** The shown result may hold deleted or changed notes, like after a bulk action on it */
+        if(!searchQuery.isEmpty()) {
+            runSearch();
+        }
+    }
+
+    /**
+     * Searches the notes, the result is delivered through getSearchResult(). The same query is
+     * not searched again, that's what happens when the recreated search field restores its text.
+     * */
+    public void search(String query) {
+        if(query.equals(searchQuery)) {
+            return;
+        }
+        searchQuery = query;
+        runSearch();
+    }
+
+    private void runSearch() {
+        noteSearchEngine.search(searchQuery, new NoteSearchEngine.Callback() {
+            @Override
+            public void onSearchResult(List<NoteSummary> notes, Map<Integer, NoteMatches> matches) {
+                searchResult.setValue(new SearchResult(notes, matches));
+            }
+        });
+    }
+
+    /** Ids of the selected notes, empty when no notes are selected */
+    public LiveData<Set<Integer>> getSelectedNoteIds() {
+        return selectedNoteIds;
+    }
+
+    public boolean isSelecting() {
+        return !selectedNoteIds.getValue().isEmpty();
+    }
+
+    /** Selects the note, or unselects it if it's selected already */
+    public void toggleSelection(int noteId) {
+        Set<Integer> noteIds = new LinkedHashSet<>(selectedNoteIds.getValue());
+        if(!noteIds.remove(noteId)) {
+            noteIds.add(noteId);
+        }
+        selectedNoteIds.setValue(noteIds);
+    }
+
+    public void clearSelection() {
+        selectedNoteIds.setValue(Collections.<Integer>emptySet());
+    }
+
+    /** Deletes all selected notes in one transaction, the grid is updated by the observed notes */
+    public void deleteSelectedNotes() {
+        noteRepository.deleteNotes(new ArrayList<>(selectedNoteIds.getValue()), null, null);
+        clearSelection();
+    }
+
+    /** Sets the color of all selected notes in one transaction */
+    public void setSelectedNotesColor(String color) {
+        noteRepository.setNotesColor(new ArrayList<>(selectedNoteIds.getValue()), color, null, null);
+        clearSelection();
+    }
+
+    @Override
+    protected void onCleared() {
+        noteRepository.removeNotesChangeListener(notesChangeListener);
+        noteSearchEngine.shutdown();
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.notebook.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    private static final long MILLISECOND = 1000000;
+
+    @Test
+    public void emptyHistogramHasNoPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertEquals(0, histogram.getPercentileNanos(99));
+    }
+
+    @Test
+    public void percentilesAreWithinABucketOfTheRecordedDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * MILLISECOND, 0);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100 * MILLISECOND, histogram.getMaxNanos());
+        assertInBucket(50 * MILLISECOND, histogram.getPercentileNanos(50));
+        assertInBucket(99 * MILLISECOND, histogram.getPercentileNanos(99));
+        assertEquals(100 * MILLISECOND, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void singleSlowDurationOnlyMovesHighPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 999; i++) {
+            histogram.record(MILLISECOND, 0);
+        }
+        histogram.record(500 * MILLISECOND, 0);
+        assertInBucket(MILLISECOND, histogram.getPercentileNanos(50));
+        assertInBucket(MILLISECOND, histogram.getPercentileNanos(99));
+        assertEquals(500 * MILLISECOND, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void bucketsCoverAllDurations() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(0, LatencyHistogram.bucketOf(-1));
+        long previousBound = 0;
+        for (long nanos = 1; nanos < 120000L * MILLISECOND; nanos *= 3) {
+            int bucket = LatencyHistogram.bucketOf(nanos);
+            long bound = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(bound >= previousBound);
+            previousBound = bound;
+        }
+    }
+
+    /** The percentile is the upper bound of the bucket, which is at most a quarter power of two larger */
+    private static void assertInBucket(long expectedNanos, long actualNanos) {
+        assertTrue(actualNanos + " < " + expectedNanos, actualNanos >= expectedNanos);
+        assertTrue(actualNanos + " > " + expectedNanos, actualNanos <= expectedNanos * 1.19 + 1);
+    }
+}
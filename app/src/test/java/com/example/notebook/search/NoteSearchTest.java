@@ -0,0 +1,180 @@
+package com.example.notebook.search;
+
+import com.example.notebook.entities.NoteSearchResult;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NoteSearchTest {
+
+    @Test
+    public void parseTermsSplitsLikeTheSimpleTokenizer() {
+        assertEquals(Arrays.asList("meet", "tom", "at", "10"), NoteSearch.parseTerms("  Meet TOM, at 10! "));
+        assertEquals(Arrays.asList("e", "mail", "x", "y"), NoteSearch.parseTerms("e-mail x_y"));
+        assertEquals(Collections.<String>emptyList(), NoteSearch.parseTerms(" ,.-*\"() "));
+        assertEquals(Collections.<String>emptyList(), NoteSearch.parseTerms(""));
+    }
+
+    @Test
+    public void parseTermsKeepsNonAsciiCharactersUnfolded() {
+        /** The simple tokenizer treats every non ASCII character as part of a word and only folds ASCII letters */
+        assertEquals(Arrays.asList("café", "ÉtÉ", "日本語"), NoteSearch.parseTerms("Café ÉTÉ 日本語"));
+        assertEquals(Arrays.asList("straße"), NoteSearch.parseTerms("STRAßE"));
+    }
+
+    @Test
+    public void parseTermsNeverKeepsQuerySyntax() {
+        List<String> terms = NoteSearch.parseTerms("title:meet* OR \"tom\" -x NEAR/2");
+        assertEquals(Arrays.asList("title", "meet", "or", "tom", "x", "near", "2"), terms);
+        assertEquals("title* meet* or* tom* x* near* 2*", NoteSearch.buildMatchQuery(terms));
+        assertNull(NoteSearch.buildMatchQuery(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void longerPrefixesNarrow() {
+        assertTrue(NoteSearch.narrows(terms("meet"), terms("meeti")));
+        assertTrue(NoteSearch.narrows(terms("meet"), terms("meet")));
+        assertTrue(NoteSearch.narrows(terms("meet"), terms("meet tom")));
+        assertTrue(NoteSearch.narrows(terms("meet t"), terms("meeting tom")));
+    }
+
+    @Test
+    public void otherQueriesDontNarrow() {
+        assertFalse(NoteSearch.narrows(null, terms("meet")));
+        assertFalse(NoteSearch.narrows(terms(""), terms("meet")));
+        assertFalse(NoteSearch.narrows(terms("meeti"), terms("meet")));
+        assertFalse(NoteSearch.narrows(terms("meet tom"), terms("meet")));
+        assertFalse(NoteSearch.narrows(terms("meet tom"), terms("tom meet")));
+        assertFalse(NoteSearch.narrows(terms("meet"), terms("greet")));
+    }
+
+    @Test
+    public void onlyCompleteResultsAreNarrowed() {
+        assertTrue(NoteSearch.canNarrow(terms("meet"), 0, terms("meeti")));
+        assertTrue(NoteSearch.canNarrow(terms("meet"), NoteSearch.RESULT_LIMIT - 1, terms("meeti")));
+        assertFalse(NoteSearch.canNarrow(terms("meet"), NoteSearch.RESULT_LIMIT, terms("meeti")));
+        assertFalse(NoteSearch.canNarrow(terms("meet"), 10, terms("greet")));
+    }
+
+    @Test
+    public void matchFindsWordsStartingWithTheTerms() {
+        List<String> terms = terms("meet tom");
+        boolean[] found = new boolean[terms.size()];
+        int[] ranges = NoteMatcher.match("Meeting with Tommy, then TOM", terms, found);
+        assertArrayEquals(new int[] {0, 4, 13, 16, 25, 28}, ranges);
+        assertTrue(NoteMatcher.allFound(found));
+    }
+
+    @Test
+    public void matchOnlyMatchesAtTheStartOfWords() {
+        List<String> terms = terms("eet");
+        boolean[] found = new boolean[terms.size()];
+        assertArrayEquals(new int[0], NoteMatcher.match("meet sweet", terms, found));
+        assertFalse(NoteMatcher.allFound(found));
+    }
+
+    @Test
+    public void matchUsesTheLongestMatchingTerm() {
+        List<String> terms = terms("me meet");
+        boolean[] found = new boolean[terms.size()];
+        assertArrayEquals(new int[] {0, 4}, NoteMatcher.match("meeting", terms, found));
+        assertTrue(NoteMatcher.allFound(found));
+    }
+
+    @Test
+    public void matchTreatsNonAsciiLikeTheIndex() {
+        List<String> terms = NoteSearch.parseTerms("café");
+        boolean[] found = new boolean[terms.size()];
+        assertArrayEquals(new int[] {3, 7}, NoteMatcher.match("Le cafés", terms, found));
+        assertTrue(found[0]);
+
+        /** "É" is not folded by the index, so "é" doesn't find it */
+        found = new boolean[terms.size()];
+        assertArrayEquals(new int[0], NoteMatcher.match("CAFÉ", terms, found));
+        assertFalse(found[0]);
+
+        /** A non ASCII character is part of the word, "naïve" is one word and doesn't start with "ve" */
+        terms = NoteSearch.parseTerms("ve");
+        found = new boolean[terms.size()];
+        assertArrayEquals(new int[0], NoteMatcher.match("naïve", terms, found));
+    }
+
+    @Test
+    public void matchReportsWhichTermsWereFound() {
+        List<String> terms = terms("meet tom zanzibar");
+        boolean[] found = new boolean[terms.size()];
+        NoteMatcher.match("meet", terms, found);
+        NoteMatcher.match(null, terms, found);
+        NoteMatcher.match("", terms, found);
+        NoteMatcher.match("Tom", terms, found);
+        assertTrue(found[0]);
+        assertTrue(found[1]);
+        assertFalse(found[2]);
+        assertFalse(NoteMatcher.allFound(found));
+        assertTrue(NoteMatcher.allFound(new boolean[0]));
+    }
+
+    @Test
+    public void rankSortsAllMatchesBeforeTheLimit() {
+        /** One phrase, hits in title, sub_title and note_text */
+        List<NoteSearchResult> results = new ArrayList<>();
+        for (int id = 1000; id > 1; id--) {
+            results.add(result(id, 0, 0, 1));
+        }
+        results.add(result(1, 1, 0, 0));
+        /** The oldest note has the hit in its title, it's first although the newest are cut off */
+        assertEquals(Arrays.asList(1, 1000, 999), NoteSearch.rank(results, 3));
+    }
+
+    @Test
+    public void rankPrefersTitleHitsAndNewerNotesOnTies() {
+        List<NoteSearchResult> results = Arrays.asList(
+                result(5, 0, 0, 1),
+                result(7, 0, 0, 1),
+                result(6, 0, 1, 0),
+                result(2, 1, 0, 0)
+        );
+        assertEquals(Arrays.asList(2, 6, 7, 5), NoteSearch.rank(results, 10));
+        assertEquals(Collections.<Integer>emptyList(), NoteSearch.rank(results, 0));
+    }
+
+    @Test
+    public void rankNarrowedNotesByTheirTexts() {
+        List<String[]> columns = Arrays.asList(
+                new String[] {"Groceries", "", "meeting notes"},
+                new String[] {"Plans", "meeting", ""},
+                new String[] {"Meeting", "", ""},
+                new String[] {"Todo", "", "another meeting"}
+        );
+        assertEquals(
+                Arrays.asList("c", "b", "a", "d"),
+                NoteSearch.rank(Arrays.asList("a", "b", "c", "d"), columns, terms("meet"))
+        );
+    }
+
+    /** A result with matchinfo 'pcx' of one phrase in three columns, 10 hits of it in all rows of every column */
+    private static NoteSearchResult result(int id, int titleHits, int subTitleHits, int textHits) {
+        int[] hits = {titleHits, subTitleHits, textHits};
+        ByteBuffer matchInfo = ByteBuffer.allocate(4 * (2 + 3 * 3)).order(ByteOrder.nativeOrder());
+        matchInfo.putInt(1).putInt(3);
+        for (int hit : hits) {
+            matchInfo.putInt(hit).putInt(10).putInt(hit > 0 ? 1 : 0);
+        }
+        NoteSearchResult result = new NoteSearchResult();
+        result.setId(id);
+        result.setMatchInfo(matchInfo.array());
+        return result;
+    }
+
+    private static List<String> terms(String keyword) {
+        return NoteSearch.parseTerms(keyword);
+    }
+}
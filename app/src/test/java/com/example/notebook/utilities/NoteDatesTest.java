@@ -0,0 +1,52 @@
+package com.example.notebook.utilities;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class NoteDatesTest {
+
+    private static final String DATE_TIME_PATTERN = "EEEE, dd MMMM yyyy MM:mm a";
+    private static final long TIME = 1577836800000L;
+
+    @Test
+    public void parsesDefaultLocaleAndEnglish() {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMAN);
+        NoteDates.DateTimeParser parser;
+        try {
+            parser = new NoteDates.DateTimeParser();
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+        String german = new SimpleDateFormat(DATE_TIME_PATTERN, Locale.GERMAN).format(new Date(TIME));
+        String english = new SimpleDateFormat(DATE_TIME_PATTERN, Locale.ENGLISH).format(new Date(TIME));
+
+        assertEquals(parse(german, Locale.GERMAN), parser.parse(german));
+        assertEquals(parse(english, Locale.ENGLISH), parser.parse(english));
+        /** English was read last and is tried first now, German must still be read */
+        assertEquals(parse(german, Locale.GERMAN), parser.parse(german));
+    }
+
+    @Test
+    public void unreadableValuesAreZero() {
+        NoteDates.DateTimeParser parser = new NoteDates.DateTimeParser();
+        assertEquals(0, parser.parse(null));
+        assertEquals(0, parser.parse(""));
+        assertEquals(0, parser.parse("   "));
+        assertEquals(0, parser.parse("yesterday"));
+    }
+
+    private static long parse(String dateTime, Locale locale) {
+        try {
+            return new SimpleDateFormat(DATE_TIME_PATTERN, locale).parse(dateTime).getTime();
+        } catch (ParseException exception) {
+            throw new AssertionError(exception);
+        }
+    }
+}